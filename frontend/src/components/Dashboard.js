@@ -57,7 +57,7 @@ const Dashboard = ({ stats, recentUploads, config }) => {
 
   const getImageUrl = (img, type) => {
     const base = config.imgBaseUrl || '';
-    return `${base}/api/images/thumbnail/${img.id}/${type}?path=${encodeURIComponent(img.url.replace('/images-static/', ''))}`;
+    return `${base}/api/images/thumbnail/${img.id}/${type}`;
   };
 
   return (
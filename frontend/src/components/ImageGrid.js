@@ -187,7 +187,7 @@ function ImageGrid({ categoryId, config, setDeletions, selectedImageIds, onSelec
 
     const getImageUrl = (img, type) => {
         const base = config.imgBaseUrl || '';
-        return `${base}/api/images/thumbnail/${img.id}/${type}?path=${encodeURIComponent(img.url.replace('/images-static/', ''))}`;
+        return `${base}/api/images/thumbnail/${img.id}/${type}`;
     };
 
     const handleSelectImage = (id) => {
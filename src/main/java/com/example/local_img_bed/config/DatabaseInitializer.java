@@ -1,19 +1,32 @@
 package com.example.local_img_bed.config;
 
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StreamUtils;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
 public class DatabaseInitializer implements CommandLineRunner {
 
     private static final Logger logger = Logger.getLogger(DatabaseInitializer.class.getName());
 
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
     private final JdbcTemplate jdbcTemplate;
 
     public DatabaseInitializer(JdbcTemplate jdbcTemplate) {
@@ -48,5 +61,45 @@ public class DatabaseInitializer implements CommandLineRunner {
             }
             logger.info("Database schema created successfully.");
         }
+
+        migrate();
+    }
+
+    /**
+     * Apply pending db/migration/V{n}__*.sql scripts in version order.
+     * The initial schema is version 1; applied versions are recorded in schema_version.
+     */
+    private void migrate() throws Exception {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS `schema_version` (" +
+                "`version` int NOT NULL, " +
+                "`description` varchar(255) NOT NULL, " +
+                "`installed_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                "PRIMARY KEY (`version`)) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci");
+        Integer current = jdbcTemplate.queryForObject("SELECT MAX(version) FROM schema_version", Integer.class);
+        if (current == null) {
+            jdbcTemplate.update("INSERT INTO schema_version (version, description) VALUES (1, 'initial schema')");
+            current = 1;
+        }
+
+        Resource[] scripts = new PathMatchingResourcePatternResolver().getResources("classpath:db/migration/V*__*.sql");
+        Arrays.sort(scripts, Comparator.comparingInt(DatabaseInitializer::migrationVersion));
+        for (Resource script : scripts) {
+            int version = migrationVersion(script);
+            if (version <= current) {
+                continue;
+            }
+            logger.info("Applying database migration " + script.getFilename());
+            jdbcTemplate.execute((java.sql.Connection connection) -> {
+                ScriptUtils.executeSqlScript(connection, new EncodedResource(script, StandardCharsets.UTF_8));
+                return null;
+            });
+            jdbcTemplate.update("INSERT INTO schema_version (version, description) VALUES (?, ?)",
+                    version, script.getFilename());
+        }
+    }
+
+    private static int migrationVersion(Resource script) {
+        Matcher matcher = MIGRATION_NAME.matcher(script.getFilename() == null ? "" : script.getFilename());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
     }
 }
@@ -29,11 +29,14 @@ public class SecurityConfig {
 
     private final String username;
     private final String password;
+    private final String transformSecret;
 
-    public SecurityConfig(JwtUtil jwtUtil, @Value("${admin.username}") String username,@Value("${admin.password}") String password) {
+    public SecurityConfig(JwtUtil jwtUtil, @Value("${admin.username}") String username,@Value("${admin.password}") String password,
+                          @Value("${image.transform.secret:}") String transformSecret) {
         this.jwtUtil = jwtUtil;
         this.username = username;
         this.password = password;
+        this.transformSecret = transformSecret;
     }
 
     @Bean
@@ -61,6 +64,10 @@ public class SecurityConfig {
 
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+        // 按需缩放/裁剪：配置了签名密钥时凭签名公开访问；未配置时按 /api/** 只允许管理员，防止任意参数消耗 CPU 和磁盘
+        if (!transformSecret.isEmpty()) {
+            http.authorizeHttpRequests(auth -> auth.requestMatchers("/api/images/transform/**").permitAll());
+        }
         http
                 .csrf(AbstractHttpConfigurer::disable) // 禁用 CSRF
                 .sessionManagement(s -> s.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -78,6 +85,7 @@ public class SecurityConfig {
                         ).permitAll()
                         // 保持你现有的API权限规则
                         .requestMatchers("/api/auth/**").permitAll()
+                        .requestMatchers("/images-static/**").permitAll() // 无 nginx 部署时由应用提供的图片
                         .requestMatchers("/api/images/thumbnail/**").permitAll() // 略缩图
                         .requestMatchers("/api/images/random").permitAll()  // 随机图
                         .requestMatchers("/api/base/config").permitAll()    // 获取配置
@@ -1,28 +1,76 @@
 package com.example.local_img_bed.controller;
 
 import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.example.local_img_bed.dto.BatchUploadResultDTO;
+import com.example.local_img_bed.dto.ChunkUploadInitDTO;
+import com.example.local_img_bed.dto.ChunkUploadStatusDTO;
+import com.example.local_img_bed.dto.DuplicateGroupDTO;
+import com.example.local_img_bed.dto.DuplicateScanStatusDTO;
 import com.example.local_img_bed.dto.ImageDTO;
 import com.example.local_img_bed.dto.ImageStatsDto;
 import com.example.local_img_bed.dto.ImageUploadDTO;
+import com.example.local_img_bed.dto.InstantUploadDTO;
+import com.example.local_img_bed.dto.ProcessingStatusDTO;
+import com.example.local_img_bed.service.BatchUploadService;
+import com.example.local_img_bed.service.ChunkUploadService;
+import com.example.local_img_bed.service.DuplicateClusterService;
+import com.example.local_img_bed.service.ImageProcessingService;
 import com.example.local_img_bed.service.ImageService;
+import com.example.local_img_bed.service.StaticFileService;
+import com.example.local_img_bed.service.StorageTierService;
+import com.example.local_img_bed.service.ThumbnailManifestService;
+import com.example.local_img_bed.service.ThumbnailService;
+import com.example.local_img_bed.service.TransformService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
 
 @Slf4j
 @RestController
 @RequestMapping("/api/images")
 @RequiredArgsConstructor
 public class ImageController {
+    private static final MediaType WEBP_MEDIA_TYPE = MediaType.parseMediaType("image/webp");
+    private static final String STATIC_PREFIX = "/images-static/";
+    private static final String SERVE_MODE_ACCEL = "accel";
+    private static final String SERVE_MODE_DIRECT = "direct";
+
+    @Value("${image.serve.mode:redirect}")
+    private String serveMode;
+
+    @Value("${image.serve.accel-prefix:/internal-images/}")
+    private String accelPrefix;
+
     private final ImageService imageService;
+    private final ChunkUploadService chunkUploadService;
+    private final BatchUploadService batchUploadService;
+    private final ImageProcessingService imageProcessingService;
+    private final DuplicateClusterService duplicateClusterService;
+    private final TransformService transformService;
+    private final ThumbnailManifestService thumbnailManifestService;
+    private final StaticFileService staticFileService;
+    private final StorageTierService storageTierService;
 
     @PostMapping("/upload")
     public ResponseEntity<ImageUploadDTO> uploadImage(
@@ -31,6 +79,79 @@ public class ImageController {
         return ResponseEntity.ok(imageService.uploadImage(file, categoryId));
     }
 
+    @PostMapping("/upload/batch")
+    public ResponseEntity<List<BatchUploadResultDTO>> uploadImages(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "categoryId", defaultValue = "1") Long categoryId) {
+        return ResponseEntity.ok(batchUploadService.uploadImages(files, categoryId));
+    }
+
+    @PostMapping("/instant")
+    public ResponseEntity<ImageUploadDTO> instantUpload(@RequestBody InstantUploadDTO instantUpload) {
+        try {
+            ImageUploadDTO existing = imageService.instantUpload(instantUpload);
+            return existing != null ? ResponseEntity.ok(existing) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping("/chunked/init")
+    public ResponseEntity<ChunkUploadStatusDTO> initChunkUpload(@RequestBody ChunkUploadInitDTO init) throws IOException {
+        try {
+            return ResponseEntity.ok(chunkUploadService.init(init));
+        } catch (IllegalArgumentException e) {
+            log.warn("初始化分片上传失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            log.warn("初始化分片上传失败: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @PutMapping("/chunked/{uploadId}/{index}")
+    public ResponseEntity<ChunkUploadStatusDTO> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            HttpServletRequest request) throws IOException {
+        try {
+            return ResponseEntity.ok(chunkUploadService.putChunk(uploadId, index, request.getInputStream()));
+        } catch (IllegalArgumentException e) {
+            log.warn("上传分片失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            log.warn("上传分片失败: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @GetMapping("/chunked/{uploadId}")
+    public ResponseEntity<ChunkUploadStatusDTO> getChunkUploadStatus(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(chunkUploadService.getStatus(uploadId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping("/chunked/{uploadId}/complete")
+    public ResponseEntity<ImageUploadDTO> completeChunkUpload(@PathVariable String uploadId) throws IOException {
+        try {
+            return ResponseEntity.ok(chunkUploadService.complete(uploadId));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e) {
+            log.warn("完成分片上传失败: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    @DeleteMapping("/chunked/{uploadId}")
+    public ResponseEntity<Void> abortChunkUpload(@PathVariable String uploadId) {
+        chunkUploadService.abort(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
     @PutMapping("/{imageId}/move")
     public ResponseEntity<Void> moveImage(
             @PathVariable Long imageId,
@@ -51,21 +172,48 @@ public class ImageController {
         return ResponseEntity.noContent().build();
     }
 
+    @GetMapping("/trash")
+    public IPage<ImageDTO> getTrash(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "10") int size) {
+        return imageService.queryTrash(page, size);
+    }
+
+    @PutMapping("/trash/restore")
+    public ResponseEntity<Integer> restoreImages(@RequestBody List<Long> imageIds) {
+        return ResponseEntity.ok(imageService.restoreImages(imageIds));
+    }
+
+    @DeleteMapping("/trash")
+    public ResponseEntity<Void> purgeImages(@RequestBody List<Long> imageIds) {
+        imageService.purgeImages(imageIds);
+        return ResponseEntity.noContent().build();
+    }
+
     @GetMapping("/thumbnail/{id}/{size}")
     public ResponseEntity<Object> getThumbnail(
             @PathVariable Long id,
             @PathVariable String size,
-            @RequestParam String path) {
+            // 兼容旧版前端传入的原图路径，已不再使用
+            @RequestParam(required = false) String path,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request, HttpServletResponse response) {
         try {
-            String thumbnailPath = imageService.getOrCreateThumbnailAndGetStaticPath(id,size, path);
-            String staticUrl = "/images-static/" + thumbnailPath;
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setLocation(new URI(staticUrl));
-            return new ResponseEntity<>(headers, HttpStatus.FOUND); // HTTP 302
+            String format = preferredFormat(accept);
+            String thumbnailPath = imageService.getOrCreateThumbnailAndGetStaticPath(id, size, format);
+            // 返回内容随 Accept 变化，缓存需按 Accept 区分
+            ResponseEntity<Object> result = serveImage(id, thumbnailPath, CacheControl.maxAge(Duration.ofDays(1)).cachePublic(), true, request, response);
+            if (result != null && result.getStatusCode() == HttpStatus.NOT_FOUND
+                    && thumbnailManifestService.removeThumbnailPath(thumbnailPath) != null) {
+                // 清单中的略缩图文件已不存在 (其他节点淘汰或手动删除)，重新生成
+                log.info("略缩图文件不存在，重新生成: {}", thumbnailPath);
+                thumbnailPath = imageService.getOrCreateThumbnailAndGetStaticPath(id, size, format);
+                result = serveImage(id, thumbnailPath, CacheControl.maxAge(Duration.ofDays(1)).cachePublic(), true, request, response);
+            }
+            return result;
         } catch (Exception e) {
             // Log the error with more details
-            log.error("Error processing thumbnail for path '{}' with size '{}': {}", path, size, e.getMessage(), e);
+            log.error("Error processing thumbnail for image '{}' with size '{}': {}", id, size, e.getMessage(), e);
             // Return a 404 Not Found for client errors or 500 for server errors
             if (e instanceof IllegalArgumentException || e instanceof IOException) {
                 return ResponseEntity.notFound().build();
@@ -74,6 +222,131 @@ public class ImageController {
         }
     }
 
+    /**
+     * 按需缩放/裁剪，参数归一化到档位后跳转到缓存的派生图
+     * @param id    原图id
+     * @param w 目标宽度
+     * @param h 目标高度
+     * @param fit   缩放方式 contain/cover
+     * @param q 质量 1~100
+     * @param sig   签名，配置了 image.transform.secret 时必填
+     * @param accept    请求头 Accept
+     * @return  302 跳转
+     */
+    @GetMapping("/transform/{id}")
+    public ResponseEntity<Object> transform(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer w,
+            @RequestParam(required = false) Integer h,
+            @RequestParam(defaultValue = TransformService.FIT_CONTAIN) String fit,
+            @RequestParam(required = false) Integer q,
+            @RequestParam(required = false) String sig,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletRequest request, HttpServletResponse response) {
+        if (!transformService.verify(id, w, h, fit, q, sig)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        try {
+            String path = transformService.transform(id, w, h, fit, q, preferredFormat(accept));
+            return serveImage(id, path, CacheControl.maxAge(Duration.ofDays(1)).cachePublic(), true, request, response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            log.error("Error transforming image '{}': {}", id, e.getMessage(), e);
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            log.error("Error transforming image '{}': {}", id, e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * 生成带签名的缩放/裁剪地址
+     * @param id    原图id
+     * @param w 目标宽度
+     * @param h 目标高度
+     * @param fit   缩放方式 contain/cover
+     * @param q 质量 1~100
+     * @return  相对地址
+     */
+    @GetMapping("/transform-url/{id}")
+    public ResponseEntity<String> transformUrl(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer w,
+            @RequestParam(required = false) Integer h,
+            @RequestParam(defaultValue = TransformService.FIT_CONTAIN) String fit,
+            @RequestParam(required = false) Integer q) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromPath("/api/images/transform/{id}")
+                .queryParamIfPresent("w", Optional.ofNullable(w))
+                .queryParamIfPresent("h", Optional.ofNullable(h))
+                .queryParam("fit", fit)
+                .queryParamIfPresent("q", Optional.ofNullable(q))
+                .queryParamIfPresent("sig", Optional.ofNullable(transformService.sign(id, w, h, fit, q)));
+        return ResponseEntity.ok(builder.buildAndExpand(id).toUriString());
+    }
+
+    /**
+     * 按 image.serve.mode 返回图片：
+     * redirect 302 跳转到 /images-static/；accel 返回 X-Accel-Redirect，由 nginx 在同一个响应中发送文件；
+     * direct 由应用直接发送文件；容量层或远程存储中的原图总是由应用发送，
+     * 派生图缓存不在 /images-static/ 公开，redirect 模式下同样由应用发送
+     * @param imageId   原图id
+     * @param staticPath    静态路径 (不带前导斜杠)
+     * @param cacheControl  缓存策略
+     * @param varyAccept    返回内容是否随 Accept 变化
+     * @param request   请求
+     * @param response  响应
+     * @return  响应，direct 模式下已直接写入响应，返回 null；文件不存在时返回 404
+     * @throws IOException  异常
+     * @throws URISyntaxException   异常
+     */
+    private ResponseEntity<Object> serveImage(Long imageId, String staticPath, CacheControl cacheControl, boolean varyAccept,
+                                              HttpServletRequest request, HttpServletResponse response) throws IOException, URISyntaxException {
+        storageTierService.recordAccess(staticPath);
+        // 容量层或远程存储中的原图 nginx 无法直接提供，由应用发送
+        if (SERVE_MODE_DIRECT.equals(serveMode) || !staticFileService.isLocal(staticPath)
+                || (!SERVE_MODE_ACCEL.equals(serveMode) && !StaticFileService.isPublic(staticPath))) {
+            if (!staticFileService.serve(request, response, staticPath,
+                    thumbnailManifestService.etag(imageId, staticPath), cacheControl, varyAccept)) {
+                return ResponseEntity.notFound().build();
+            }
+            return null;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (varyAccept) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT));
+        }
+        if (SERVE_MODE_ACCEL.equals(serveMode)) {
+            // 文件名可能包含中文，需按 URI 编码，nginx 会解码后查找文件
+            headers.set("X-Accel-Redirect", accelPrefix + UriUtils.encodePath(staticPath, StandardCharsets.UTF_8));
+            headers.setCacheControl(cacheControl);
+            return new ResponseEntity<>(headers, HttpStatus.OK);
+        }
+        headers.setLocation(new URI(STATIC_PREFIX + staticPath));
+        return new ResponseEntity<>(headers, HttpStatus.FOUND); // HTTP 302
+    }
+
+    /**
+     * 根据 Accept 选择略缩图输出格式，只有显式声明支持 WebP 时才返回 WebP
+     * @param accept    请求头 Accept
+     * @return  输出格式，null 表示与原图格式一致
+     */
+    private String preferredFormat(String accept) {
+        if (accept == null) {
+            return null;
+        }
+        try {
+            for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+                if (WEBP_MEDIA_TYPE.equalsTypeAndSubtype(mediaType) && mediaType.getQualityValue() > 0) {
+                    return ThumbnailService.WEBP;
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            log.debug("无法解析 Accept: {}", accept);
+        }
+        return null;
+    }
+
     @GetMapping("/page/{categoryId}")
     public IPage<ImageDTO> getCategoryDetails(
             @PathVariable Long categoryId,
@@ -103,6 +376,11 @@ public class ImageController {
         }
     }
 
+    @GetMapping("/processing/status")
+    public ProcessingStatusDTO getProcessingStatus() {
+        return imageProcessingService.getStatus();
+    }
+
     @PutMapping("/batch-move")
     public ResponseEntity<Void> batchMoveImages(
             @RequestBody List<Long> imageIds,
@@ -119,15 +397,58 @@ public class ImageController {
         return ResponseEntity.ok(similarImages);
     }
 
+    @PostMapping("/duplicates/scan")
+    public ResponseEntity<DuplicateScanStatusDTO> scanDuplicates(@RequestParam(defaultValue = "5") int threshold) {
+        try {
+            return ResponseEntity.accepted().body(duplicateClusterService.startScan(threshold));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(duplicateClusterService.getStatus());
+        }
+    }
+
+    @GetMapping("/duplicates/status")
+    public DuplicateScanStatusDTO getDuplicateScanStatus() {
+        return duplicateClusterService.getStatus();
+    }
+
+    @GetMapping("/duplicates")
+    public IPage<DuplicateGroupDTO> getDuplicateGroups(
+            @RequestParam(defaultValue = "1") int page,
+            @RequestParam(defaultValue = "10") int size) {
+        return duplicateClusterService.getGroups(page, size);
+    }
+
+    @PostMapping("/similar/search")
+    public ResponseEntity<List<ImageDTO>> searchSimilarImages(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "pHash", required = false) String pHash,
+            @RequestParam(defaultValue = "10") int threshold) {
+        try {
+            if (file != null && !file.isEmpty()) {
+                try (InputStream inputStream = file.getInputStream()) {
+                    return ResponseEntity.ok(imageService.findSimilarImages(inputStream, threshold));
+                }
+            }
+            if (pHash != null) {
+                return ResponseEntity.ok(imageService.findSimilarImagesByPHash(Long.decode(pHash.trim()), threshold));
+            }
+            return ResponseEntity.badRequest().build();
+        } catch (NumberFormatException | IOException e) {
+            log.warn("以图搜图失败: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @GetMapping("/random")
-    public ResponseEntity<Object> getRandomImage(@RequestParam(required = false) Long categoryId) {
+    public ResponseEntity<Object> getRandomImage(@RequestParam(required = false) Long categoryId,
+                                                 HttpServletRequest request, HttpServletResponse response) {
         try {
             ImageDTO randomImage = imageService.getRandomImage(categoryId);
             if (randomImage != null) {
-                String staticUrl = randomImage.getUrl();
-                HttpHeaders headers = new HttpHeaders();
-                headers.setLocation(new URI(staticUrl));
-                return new ResponseEntity<>(headers, HttpStatus.FOUND); // HTTP 302
+                String staticPath = randomImage.getUrl().substring(STATIC_PREFIX.length());
+                return serveImage(randomImage.getId(), staticPath, CacheControl.noStore(), false, request, response);
             } else {
                 return ResponseEntity.notFound().build();
             }
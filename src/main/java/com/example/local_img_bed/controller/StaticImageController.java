@@ -0,0 +1,86 @@
+package com.example.local_img_bed.controller;
+
+import com.example.local_img_bed.service.StaticFileService;
+import com.example.local_img_bed.service.StorageTierService;
+import com.example.local_img_bed.service.ThumbnailManifestService;
+import com.example.local_img_bed.service.ThumbnailService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * 不经过 nginx 部署时 (直接运行 jar 或单独的 Dockerfile 镜像) 提供 /images-static/ 下的原图和略缩图
+ * 使用 nginx 时该路径由 nginx 直接处理，只有 root-path 下不存在的文件 (容量层或远程存储中的原图) 会回退到这里。
+ * 只提供 original/、thumbnails/ 和 volumes/ 下的文件，回收站中的原图返回 404，ETag 与按图片id访问时相同，由内容哈希生成；
+ * 清单中的略缩图文件被外部删除时跳转到略缩图接口重新生成
+ */
+@RestController
+@Slf4j
+@RequiredArgsConstructor
+public class StaticImageController {
+    private static final String STATIC_PREFIX = "/images-static/";
+    private static final String ORIGINAL_PREFIX = "original/";
+    private static final String THUMBNAIL_PREFIX = "/api/images/thumbnail/";
+
+    private final StaticFileService staticFileService;
+    private final StorageTierService storageTierService;
+    private final ThumbnailManifestService thumbnailManifestService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @GetMapping(STATIC_PREFIX + "**")
+    public void getStaticImage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        String relativePath = UriUtils.decode(uri.substring(STATIC_PREFIX.length()), StandardCharsets.UTF_8);
+
+        // 检查路径是否异常，遍历攻击；不提供隐藏文件 (写入中的临时文件)
+        Path root = Paths.get(rootPath).toAbsolutePath().normalize();
+        Path file = root.resolve(relativePath).normalize();
+        if (!file.startsWith(root) || file.equals(root) || file.getFileName().toString().startsWith(".")) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // 临时文件、内容寻址存储和派生图缓存不公开
+        String staticPath = root.relativize(file).toString().replace(File.separator, "/");
+        if (!StaticFileService.isPublic(staticPath)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // 回收站中的原图文件保留到彻底删除，但不再公开
+        if (staticPath.startsWith(ORIGINAL_PREFIX) && !thumbnailManifestService.isOriginalAvailable(staticPath)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // 同一路径的文件内容不会变化 (文件名带 UUID)，可以永久缓存
+        storageTierService.recordAccess(staticPath);
+        if (staticFileService.serve(request, response, staticPath, thumbnailManifestService.etagForPath(staticPath),
+                CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable(), false)) {
+            return;
+        }
+        // 清单中的略缩图文件已不存在 (其他节点淘汰或手动删除)：移除清单记录，跳转到略缩图接口重新生成
+        ThumbnailManifestService.ThumbnailKey thumbnail = thumbnailManifestService.removeThumbnailPath(staticPath);
+        if (thumbnail == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        log.info("略缩图文件不存在，重新生成: {}", staticPath);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+        response.sendRedirect(request.getContextPath() + THUMBNAIL_PREFIX + thumbnail.imageId() + "/"
+                + ThumbnailService.sizeOf(thumbnail.type()));
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class BatchUploadResultDTO {
+    // 原始文件名
+    private String originalName;
+    // 图片ID，失败时为空
+    private Long id;
+    // 是否为已存在的重复图片
+    private Boolean duplicate;
+    // 是否成功
+    private Boolean success;
+    // 失败原因
+    private String message;
+}
@@ -0,0 +1,17 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+@Data
+public class ChunkUploadInitDTO {
+    // 原始文件名
+    private String fileName;
+    // 文件类型
+    private String contentType;
+    // 文件总大小 (字节)
+    private Long fileSize;
+    // 分片大小 (字节)，最后一片可以更小
+    private Integer chunkSize;
+    // 所属分类ID
+    private Long categoryId;
+}
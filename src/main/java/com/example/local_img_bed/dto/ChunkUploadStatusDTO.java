@@ -0,0 +1,23 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ChunkUploadStatusDTO {
+    // 上传会话ID
+    private String uploadId;
+    // 原始文件名
+    private String fileName;
+    // 文件总大小 (字节)
+    private Long fileSize;
+    // 分片大小 (字节)
+    private Integer chunkSize;
+    // 分片总数
+    private Integer totalChunks;
+    // 已接收的分片序号
+    private List<Integer> receivedChunks;
+    // 是否已接收全部分片
+    private Boolean complete;
+}
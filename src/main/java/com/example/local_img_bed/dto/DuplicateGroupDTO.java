@@ -0,0 +1,21 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class DuplicateGroupDTO {
+    // 分组序号
+    private Integer groupId;
+    // 组内图片数量
+    private Integer imageCount;
+    // 组内图片总大小 (字节)
+    private Long totalSize;
+    // 只保留建议图片时可释放的大小 (字节)
+    private Long reclaimableSize;
+    // 建议保留的图片id (文件最大，相同时取最早上传)
+    private Long keeperId;
+    // 组内图片
+    private List<ImageDTO> images;
+}
@@ -0,0 +1,23 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class DuplicateScanStatusDTO {
+    // IDLE / RUNNING / DONE / FAILED
+    private String state;
+    // 本次扫描使用的汉明距离阈值
+    private Integer threshold;
+    // 参与扫描的图片数量
+    private Integer scannedImages;
+    // 找到的重复分组数量
+    private Integer groups;
+    // 开始时间
+    private LocalDateTime startTime;
+    // 结束时间
+    private LocalDateTime finishTime;
+    // 失败原因
+    private String message;
+}
@@ -1,5 +1,7 @@
 package com.example.local_img_bed.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -15,6 +17,10 @@ public class ImageDTO {
     private Long fileSize;
     private Long categoryId;
     private String hash;
-    private String pHash;
+    // 64位整数超出 JavaScript 安全整数范围，按字符串输出
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long pHash;
     private LocalDateTime createTime;
+    // 移入回收站的时间，只在回收站列表中有值
+    private LocalDateTime deletedAt;
 }
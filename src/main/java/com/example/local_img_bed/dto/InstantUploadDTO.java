@@ -0,0 +1,15 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+@Data
+public class InstantUploadDTO {
+    // 客户端计算的文件SHA-256 (十六进制)
+    private String hash;
+    // 文件大小 (字节)，可选，用于校验
+    private Long fileSize;
+    // 原始文件名
+    private String originalName;
+    // 所属分类ID
+    private Long categoryId;
+}
@@ -0,0 +1,19 @@
+package com.example.local_img_bed.dto;
+
+import lombok.Data;
+
+@Data
+public class ProcessingStatusDTO {
+    // 队列中等待处理的图片数量
+    private Integer queued;
+    // 正在处理的图片数量
+    private Integer running;
+    // 等待重试的图片数量
+    private Integer retrying;
+    // 超过重试次数后放弃处理的图片数量
+    private Integer failed;
+    // 启动以来处理完成的图片数量
+    private Long completed;
+    // 队列容量
+    private Integer queueCapacity;
+}
@@ -18,6 +18,15 @@ public class Image {
     private Long fileSize;
     private Long categoryId;
     private String hash;
-    private String pHash;
+    private Long pHash;
+    /**
+     * 存储层级，0 高速层 1 容量层
+     */
+    private Integer tier;
     private LocalDateTime createTime;
+    private LocalDateTime lastAccessTime;
+    /**
+     * 移入回收站的时间，null 表示未删除
+     */
+    private LocalDateTime deletedAt;
 }
\ No newline at end of file
@@ -17,5 +17,6 @@ public class Thumbnail {
     private Long fileSize;
     private Long originalId;
     private LocalDateTime createTime;
+    private LocalDateTime lastAccessTime;
 
 }
\ No newline at end of file
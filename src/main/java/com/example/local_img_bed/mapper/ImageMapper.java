@@ -3,11 +3,18 @@ package com.example.local_img_bed.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.local_img_bed.dto.ImageStatsDto;
 import com.example.local_img_bed.entity.Image;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Mapper
@@ -18,23 +25,171 @@ public interface ImageMapper extends BaseMapper<Image> {
     @Select("SELECT \n" +
             "    COUNT(*) AS total_images,\n" +
             "    ROUND(SUM(COALESCE(file_size, 0)) / 1048576, 2) AS total_image_size\n" +
-            "FROM image;")
+            "FROM image WHERE deleted_at IS NULL;")
     ImageStatsDto getImgSize();
 
-    @Select("select * from image where create_time order by create_time desc limit #{size}")
+    @Select("select * from image where deleted_at is null order by create_time desc limit #{size}")
     List<Image> getRecentUploads(int size);
 
+    @Insert("<script>" +
+            "INSERT INTO image (original_name, storage_path, file_type, file_size, category_id, hash, p_hash) VALUES " +
+            "<foreach collection='list' item='img' separator=','>" +
+            "(#{img.originalName}, #{img.storagePath}, #{img.fileType}, #{img.fileSize}, #{img.categoryId}, #{img.hash}, #{img.pHash})" +
+            "</foreach>" +
+            "</script>")
+    @Options(useGeneratedKeys = true, keyProperty = "id")
+    int insertBatch(@Param("list") List<Image> images);
+
+    @Update("UPDATE image SET p_hash = #{pHash} WHERE id = #{imageId}")
+    int updatePHash(@Param("imageId") Long imageId, @Param("pHash") Long pHash);
+
+    @Select("<script>" +
+            "SELECT id FROM image WHERE p_hash IS NULL " +
+            "<if test=\"afterId != null\">AND id &gt; #{afterId} </if>" +
+            "ORDER BY id LIMIT #{limit}" +
+            "</script>")
+    List<Long> selectIdsWithoutPHash(@Param("afterId") Long afterId, @Param("limit") int limit);
+
+    /**
+     * 流式读取全部感知哈希，只查询 id 和 p_hash 两列，不包含回收站中的图片
+     */
+    @Select("SELECT id, p_hash FROM image WHERE p_hash IS NOT NULL AND deleted_at IS NULL")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Image.class)
+    void scanPHashes(ResultHandler<Image> handler);
+
+    /**
+     * 流式读取全部图片的存储路径，只查询 id、storage_path 和 hash 三列，不包含回收站中的图片
+     */
+    @Select("SELECT id, storage_path, hash FROM image WHERE deleted_at IS NULL")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Image.class)
+    void scanStoragePaths(ResultHandler<Image> handler);
+
     @Select("SELECT storage_path FROM image")
     List<String> selectAllStoragePaths();
 
     @Select("<script>" +
             "SELECT * FROM image " +
-            "<where>" +
+            "WHERE deleted_at IS NULL " +
             "<if test=\"categoryId != null\">" +
-            "category_id = #{categoryId}" +
+            "AND category_id = #{categoryId} " +
             "</if>" +
-            "</where>" +
             "ORDER BY RAND() LIMIT 1" +
             "</script>")
     Image getRandomImage(@Param("categoryId") Long categoryId);
+
+    /**
+     * 按存储路径批量更新原图最近访问时间
+     * @param storagePaths  存储路径
+     * @param time  访问时间
+     * @return  影响行数
+     */
+    @Update("<script>" +
+            "UPDATE image SET last_access_time = #{time} WHERE storage_path IN " +
+            "<foreach collection=\"storagePaths\" item=\"path\" open=\"(\" separator=\",\" close=\")\">#{path}</foreach>" +
+            "</script>")
+    int updateLastAccessTime(@Param("storagePaths") Collection<String> storagePaths, @Param("time") LocalDateTime time);
+
+    @Update("UPDATE image SET last_access_time = #{time} WHERE id = #{id}")
+    int updateLastAccessTimeById(@Param("id") Long id, @Param("time") LocalDateTime time);
+
+    /**
+     * 指定层级中超过时间未访问的图片
+     * @param tier  层级
+     * @param before    最近访问时间早于该时间
+     * @param afterId   从该id之后开始
+     * @param limit 数量
+     * @return  图片列表，只包含 id、storage_path、hash
+     */
+    @Select("SELECT id, storage_path, hash FROM image " +
+            "WHERE tier = #{tier} AND last_access_time < #{before} AND id > #{afterId} " +
+            "ORDER BY id LIMIT #{limit}")
+    List<Image> selectIdleInTier(@Param("tier") int tier, @Param("before") LocalDateTime before,
+                                 @Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 按存储路径查询指定层级的图片
+     * @param tier  层级
+     * @param storagePaths  存储路径
+     * @return  图片列表，只包含 id、storage_path、hash
+     */
+    @Select("<script>" +
+            "SELECT id, storage_path, hash FROM image WHERE tier = #{tier} AND storage_path IN " +
+            "<foreach collection=\"storagePaths\" item=\"path\" open=\"(\" separator=\",\" close=\")\">#{path}</foreach>" +
+            "</script>")
+    List<Image> selectInTierByStoragePaths(@Param("tier") int tier, @Param("storagePaths") Collection<String> storagePaths);
+
+    /**
+     * 切换存储层级，只有当前层级与预期一致时才更新
+     * @param id    图片id
+     * @param from  当前层级
+     * @param to    目标层级
+     * @return  影响行数，0 表示图片已删除或已被其他任务迁移
+     */
+    @Update("UPDATE image SET tier = #{to} WHERE id = #{id} AND tier = #{from}")
+    int updateTier(@Param("id") Long id, @Param("from") int from, @Param("to") int to);
+
+    /**
+     * 按存储路径查询图片，用于按路径访问原图时排除回收站中的图片
+     * @param storagePath  存储路径
+     * @return  图片，只包含 id、storage_path、hash、deleted_at，不存在时返回 null
+     */
+    @Select("SELECT id, storage_path, hash, deleted_at FROM image WHERE storage_path = #{storagePath} LIMIT 1")
+    Image selectFileByStoragePath(@Param("storagePath") String storagePath);
+
+    /**
+     * 批量查询图片的文件信息
+     * @param ids   图片id
+     * @return  图片列表，只包含 id、storage_path、hash、p_hash、deleted_at
+     */
+    @Select("<script>" +
+            "SELECT id, storage_path, hash, p_hash, deleted_at FROM image WHERE id IN " +
+            "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</script>")
+    List<Image> selectFilesByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 查询并锁定回收站中的图片，彻底删除前调用，事务提交前还原操作会等待
+     * @param ids   图片id
+     * @return  图片列表，只包含 id、storage_path、hash、p_hash
+     */
+    @Select("<script>" +
+            "SELECT id, storage_path, hash, p_hash FROM image WHERE deleted_at IS NOT NULL AND id IN " +
+            "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            " FOR UPDATE" +
+            "</script>")
+    List<Image> selectTrashedForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 移入回收站，已在回收站中的图片不更新删除时间
+     * @param ids   图片id
+     * @param time  删除时间
+     * @return  影响行数
+     */
+    @Update("<script>" +
+            "UPDATE image SET deleted_at = #{time} WHERE deleted_at IS NULL AND id IN " +
+            "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</script>")
+    int trashByIds(@Param("ids") Collection<Long> ids, @Param("time") LocalDateTime time);
+
+    /**
+     * 从回收站还原
+     * @param ids   图片id
+     * @return  影响行数
+     */
+    @Update("<script>" +
+            "UPDATE image SET deleted_at = NULL WHERE deleted_at IS NOT NULL AND id IN " +
+            "<foreach collection=\"ids\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</script>")
+    int restoreByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 删除时间早于指定时间的回收站图片
+     * @param before    删除时间早于该时间
+     * @param limit 数量
+     * @return  图片id，按删除时间升序
+     */
+    @Select("SELECT id FROM image WHERE deleted_at < #{before} ORDER BY deleted_at LIMIT #{limit}")
+    List<Long> selectTrashedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
 }
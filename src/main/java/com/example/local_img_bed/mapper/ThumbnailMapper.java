@@ -3,8 +3,20 @@ package com.example.local_img_bed.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.local_img_bed.dto.ImageStatsDto;
 import com.example.local_img_bed.entity.Thumbnail;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface ThumbnailMapper extends BaseMapper<Thumbnail> {
@@ -13,4 +25,134 @@ public interface ThumbnailMapper extends BaseMapper<Thumbnail> {
             "    ROUND(SUM(COALESCE(file_size, 0)) / 1048576, 2) AS total_thumbnail_size\n" +
             "FROM thumbnail;")
     ImageStatsDto getImgSize();
+
+    /**
+     * 插入略缩图，同一原图的同一类型已存在时更新路径和大小
+     * @param thumbnail 略缩图
+     * @return  影响行数
+     */
+    @Insert("INSERT INTO thumbnail (type, storage_path, file_size, original_id) " +
+            "VALUES (#{type}, #{storagePath}, #{fileSize}, #{originalId}) " +
+            "ON DUPLICATE KEY UPDATE storage_path = VALUES(storage_path), file_size = VALUES(file_size), " +
+            "last_access_time = CURRENT_TIMESTAMP")
+    int upsert(Thumbnail thumbnail);
+
+    /**
+     * 流式读取全部略缩图的原图id、类型和存储路径
+     */
+    @Select("SELECT original_id, type, storage_path FROM thumbnail")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Thumbnail.class)
+    void scanThumbnails(ResultHandler<Thumbnail> handler);
+
+    /**
+     * 批量更新最近访问时间
+     * @param keys  只需填写 originalId 和 type
+     * @param time  访问时间
+     * @return  影响行数
+     */
+    @Update("<script>" +
+            "UPDATE thumbnail SET last_access_time = #{time} WHERE (original_id, type) IN " +
+            "<foreach collection=\"keys\" item=\"key\" open=\"(\" separator=\",\" close=\")\">" +
+            "(#{key.originalId}, #{key.type})" +
+            "</foreach>" +
+            "</script>")
+    int updateLastAccessTime(@Param("keys") List<Thumbnail> keys, @Param("time") LocalDateTime time);
+
+    /**
+     * 单独存放的略缩图总大小，不包含打包卷中的略缩图 (删除记录不释放空间，由打包卷压缩回收)
+     * @param volumePrefix  打包卷目录前缀 (LIKE 转义后)
+     * @return  总大小 (字节)
+     */
+    @Select("SELECT COALESCE(SUM(file_size), 0) FROM thumbnail WHERE storage_path NOT LIKE CONCAT(#{volumePrefix}, '%')")
+    long sumFileSize(@Param("volumePrefix") String volumePrefix);
+
+    /**
+     * 最久未访问的单独存放的略缩图
+     * @param volumePrefix  打包卷目录前缀 (LIKE 转义后)
+     * @param limit 数量
+     * @return  略缩图列表
+     */
+    @Select("SELECT id, type, storage_path, file_size, original_id FROM thumbnail " +
+            "WHERE storage_path NOT LIKE CONCAT(#{volumePrefix}, '%') " +
+            "ORDER BY last_access_time, id LIMIT #{limit}")
+    List<Thumbnail> selectLeastRecentlyAccessed(@Param("volumePrefix") String volumePrefix, @Param("limit") int limit);
+
+    /**
+     * 仍在旧的平铺目录 (thumbnails/尺寸/文件名) 中的略缩图，Windows 下写入的路径使用反斜杠，先统一为 / 再匹配
+     * @param afterId   从该id之后开始
+     * @param limit 数量
+     * @return  略缩图列表
+     */
+    @Select("SELECT id, type, storage_path, original_id FROM thumbnail " +
+            "WHERE id > #{afterId} AND REPLACE(storage_path, '\\\\', '/') REGEXP '^/?thumbnails/[^/]+/[^/]+$' " +
+            "ORDER BY id LIMIT #{limit}")
+    List<Thumbnail> selectUnshardedAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 批量更新存储路径
+     * @param thumbnails    只需填写 id 和 storagePath
+     * @return  影响行数
+     */
+    @Update("<script>" +
+            "UPDATE thumbnail SET storage_path = CASE id " +
+            "<foreach collection=\"list\" item=\"item\">WHEN #{item.id} THEN #{item.storagePath} </foreach>" +
+            "END WHERE id IN " +
+            "<foreach collection=\"list\" item=\"item\" open=\"(\" separator=\",\" close=\")\">#{item.id}</foreach>" +
+            "</script>")
+    int updateStoragePaths(@Param("list") List<Thumbnail> thumbnails);
+
+    /**
+     * 存储路径仍为旧路径时更新为新路径，迁移期间记录可能已被删除或重新生成
+     * @param id    略缩图id
+     * @param expected  旧存储路径
+     * @param storagePath   新存储路径
+     * @return  影响行数，0 表示记录已变化
+     */
+    @Update("UPDATE thumbnail SET storage_path = #{storagePath} WHERE id = #{id} AND storage_path = #{expected}")
+    int updateStoragePathIfUnchanged(@Param("id") Long id, @Param("expected") String expected,
+                                     @Param("storagePath") String storagePath);
+
+    /**
+     * 流式读取打包卷中全部略缩图的存储路径
+     * @param prefix    卷目录前缀 (LIKE 转义后)
+     */
+    @Select("SELECT id, storage_path FROM thumbnail WHERE storage_path LIKE CONCAT(#{prefix}, '%')")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Thumbnail.class)
+    void scanByStoragePathPrefix(@Param("prefix") String prefix, ResultHandler<Thumbnail> handler);
+
+    /**
+     * 存储路径以指定前缀开头的略缩图
+     * @param prefix    路径前缀 (LIKE 转义后)
+     * @param afterId   从该id之后开始
+     * @param limit 数量
+     * @return  略缩图列表
+     */
+    @Select("SELECT id, type, storage_path, original_id FROM thumbnail " +
+            "WHERE storage_path LIKE CONCAT(#{prefix}, '%') AND id > #{afterId} ORDER BY id LIMIT #{limit}")
+    List<Thumbnail> selectByStoragePathPrefix(@Param("prefix") String prefix, @Param("afterId") long afterId,
+                                              @Param("limit") int limit);
+
+    /**
+     * 批量查询原图的全部略缩图
+     * @param originalIds   原图id
+     * @return  略缩图列表，只包含 id、storage_path
+     */
+    @Select("<script>" +
+            "SELECT id, storage_path FROM thumbnail WHERE original_id IN " +
+            "<foreach collection=\"originalIds\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</script>")
+    List<Thumbnail> selectByOriginalIds(@Param("originalIds") Collection<Long> originalIds);
+
+    /**
+     * 批量删除原图的全部略缩图
+     * @param originalIds   原图id
+     * @return  影响行数
+     */
+    @Delete("<script>" +
+            "DELETE FROM thumbnail WHERE original_id IN " +
+            "<foreach collection=\"originalIds\" item=\"id\" open=\"(\" separator=\",\" close=\")\">#{id}</foreach>" +
+            "</script>")
+    int deleteByOriginalIds(@Param("originalIds") Collection<Long> originalIds);
 }
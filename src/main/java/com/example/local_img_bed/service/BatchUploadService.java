@@ -0,0 +1,241 @@
+package com.example.local_img_bed.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.example.local_img_bed.dto.BatchUploadResultDTO;
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+/**
+ * 批量上传
+ * 单个文件的哈希和写盘在有界线程池中并行执行，去重查询和入库按批次合并，感知哈希交给后台流水线
+ */
+@Service
+@Slf4j
+public class BatchUploadService {
+    private final ImageService imageService;
+    private final ImageMapper imageMapper;
+    private final ImageProcessingService imageProcessingService;
+    private final ThreadPoolTaskExecutor uploadExecutor;
+
+    public BatchUploadService(ImageService imageService, ImageMapper imageMapper, ImageProcessingService imageProcessingService,
+                              @Qualifier("uploadExecutor") ThreadPoolTaskExecutor uploadExecutor) {
+        this.imageService = imageService;
+        this.imageMapper = imageMapper;
+        this.imageProcessingService = imageProcessingService;
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * 批量上传图片
+     * @param files 上传文件
+     * @param categoryId    分类id
+     * @return  与上传顺序一致的逐个文件结果
+     */
+    public List<BatchUploadResultDTO> uploadImages(List<MultipartFile> files, Long categoryId) {
+        List<BatchUploadResultDTO> results = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            BatchUploadResultDTO result = new BatchUploadResultDTO();
+            result.setOriginalName(file.getOriginalFilename());
+            result.setDuplicate(false);
+            result.setSuccess(false);
+            results.add(result);
+        }
+
+        // 1. 并行写入临时文件并计算SHA-256
+        List<CompletableFuture<ImageService.StagedFile>> stageFutures = files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> stage(file), uploadExecutor))
+                .toList();
+        List<ImageService.StagedFile> staged = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                staged.add(stageFutures.get(i).join());
+            } catch (CompletionException e) {
+                staged.add(null);
+                fail(results.get(i), e.getCause());
+            }
+        }
+
+        try {
+            // 2. 一次查询找出库中已存在的文件
+            List<String> hashes = staged.stream().filter(s -> s != null).map(ImageService.StagedFile::hash).distinct().toList();
+            Map<String, Image> existing = new HashMap<>();
+            if (!hashes.isEmpty()) {
+                LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+                query.in(Image::getHash, hashes);
+                imageMapper.selectList(query).forEach(image -> existing.put(image.getHash(), image));
+            }
+
+            // 同一批次内重复的文件只保留第一个
+            Map<String, Integer> firstIndexByHash = new HashMap<>();
+            List<Integer> newIndexes = new ArrayList<>();
+            for (int i = 0; i < staged.size(); i++) {
+                ImageService.StagedFile stagedFile = staged.get(i);
+                if (stagedFile == null) {
+                    continue;
+                }
+                Image image = existing.get(stagedFile.hash());
+                // 回收站中的图片重新上传时还原，已被彻底删除时按新文件保存
+                if (image != null && !imageService.restoreIfTrashed(image)) {
+                    existing.remove(stagedFile.hash());
+                    image = null;
+                }
+                if (image != null) {
+                    markDuplicate(results.get(i), image.getId());
+                } else if (firstIndexByHash.putIfAbsent(stagedFile.hash(), i) == null) {
+                    newIndexes.add(i);
+                } else {
+                    results.get(i).setDuplicate(true);
+                }
+            }
+
+            // 3. 并行移动到正式目录
+            Map<Integer, CompletableFuture<Image>> saveFutures = new HashMap<>();
+            for (Integer i : newIndexes) {
+                MultipartFile file = files.get(i);
+                ImageService.StagedFile stagedFile = staged.get(i);
+                saveFutures.put(i, CompletableFuture.supplyAsync(
+                        () -> save(stagedFile, file.getOriginalFilename(), file.getContentType(), categoryId), uploadExecutor));
+            }
+            Map<Integer, Image> saved = new HashMap<>();
+            for (Integer i : newIndexes) {
+                try {
+                    saved.put(i, saveFutures.get(i).join());
+                } catch (CompletionException e) {
+                    fail(results.get(i), e.getCause());
+                }
+            }
+
+            // 4. 多行插入
+            insert(saved, results);
+
+            // 批次内重复的文件指向第一次出现的图片
+            for (int i = 0; i < staged.size(); i++) {
+                ImageService.StagedFile stagedFile = staged.get(i);
+                if (stagedFile != null && Boolean.TRUE.equals(results.get(i).getDuplicate()) && results.get(i).getId() == null) {
+                    BatchUploadResultDTO first = results.get(firstIndexByHash.get(stagedFile.hash()));
+                    results.get(i).setId(first.getId());
+                    results.get(i).setSuccess(first.getSuccess());
+                    results.get(i).setMessage(first.getMessage());
+                }
+            }
+        } finally {
+            // 清理未移动的临时文件（重复或失败的文件）
+            for (ImageService.StagedFile stagedFile : staged) {
+                if (stagedFile != null) {
+                    try {
+                        Files.deleteIfExists(stagedFile.path());
+                    } catch (IOException e) {
+                        log.error("删除临时文件失败: {}", stagedFile.path(), e);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private ImageService.StagedFile stage(MultipartFile file) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return imageService.stageUpload(inputStream);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private Image save(ImageService.StagedFile stagedFile, String originalName, String contentType, Long categoryId) {
+        try {
+            return imageService.saveOriginalFile(stagedFile, originalName, contentType, categoryId);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * 多行插入新图片；并发上传导致唯一键冲突时退回逐行插入，冲突的图片按重复处理
+     * @param saved 序号到待插入图片的映射
+     * @param results   上传结果
+     */
+    private void insert(Map<Integer, Image> saved, List<BatchUploadResultDTO> results) {
+        if (saved.isEmpty()) {
+            return;
+        }
+        List<Integer> indexes = saved.keySet().stream().sorted().toList();
+        try {
+            imageMapper.insertBatch(indexes.stream().map(saved::get).collect(Collectors.toList()));
+            for (Integer i : indexes) {
+                results.get(i).setId(saved.get(i).getId());
+                results.get(i).setSuccess(true);
+                imageProcessingService.submit(saved.get(i).getId());
+            }
+        } catch (DuplicateKeyException e) {
+            log.warn("批量插入出现重复图片，改为逐条插入: {}", e.getMessage());
+            for (Integer i : indexes) {
+                Image image = saved.get(i);
+                image.setId(null);
+                try {
+                    imageMapper.insert(image);
+                } catch (DuplicateKeyException ex) {
+                    try {
+                        LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+                        query.eq(Image::getHash, image.getHash());
+                        Image other = imageMapper.selectOne(query);
+                        markDuplicate(results.get(i), other == null ? null : other.getId());
+                    } catch (RuntimeException lookupError) {
+                        fail(results.get(i), lookupError);
+                    }
+                    deleteQuietly(image);
+                    continue;
+                } catch (RuntimeException ex) {
+                    // 逐行插入中的其他错误只影响该行，其余行继续处理
+                    fail(results.get(i), ex);
+                    deleteQuietly(image);
+                    continue;
+                }
+                results.get(i).setId(image.getId());
+                results.get(i).setSuccess(true);
+                imageProcessingService.submit(image.getId());
+            }
+        } catch (RuntimeException e) {
+            for (Integer i : indexes) {
+                fail(results.get(i), e);
+                deleteQuietly(saved.get(i));
+            }
+        }
+    }
+
+    private void markDuplicate(BatchUploadResultDTO result, Long id) {
+        result.setId(id);
+        result.setDuplicate(true);
+        result.setSuccess(id != null);
+    }
+
+    private void fail(BatchUploadResultDTO result, Throwable e) {
+        log.error("批量上传文件失败: {}", result.getOriginalName(), e);
+        result.setSuccess(false);
+        result.setMessage(e.getMessage());
+    }
+
+    private void deleteQuietly(Image image) {
+        try {
+            imageService.deleteOriginalFile(image);
+        } catch (IOException e) {
+            log.error("删除文件失败: {}", image.getStoragePath(), e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.local_img_bed.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * 内容寻址的原图存储
+ * 文件内容只保存一份，路径由 SHA-256 决定 (blobs/ab/cd/&lt;sha256&gt;)；数据库中的日期路径是指向该文件的硬链接，
+ * 静态访问方式不变。文件的硬链接数即引用计数，最后一个日期路径删除后一并删除内容文件。只用于本地存储后端
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BlobStoreService {
+    private static final String BLOB_DIR = "blobs";
+    private static final int MAX_STORE_ATTEMPTS = 3;
+
+    private final StorageBackend storageBackend;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    /**
+     * 是否启用内容寻址存储，关闭时原图直接保存在日期路径
+     */
+    @Value("${image.storage.content-addressable:false}")
+    private boolean enabled;
+
+    public boolean isEnabled() {
+        return enabled && storageBackend.isLocal();
+    }
+
+    /**
+     * 内容文件路径，按哈希前四位分两级目录
+     * @param hash  SHA-256
+     * @return  绝对路径
+     */
+    public Path blobPath(String hash) {
+        return Paths.get(rootPath, BLOB_DIR, hash.substring(0, 2), hash.substring(2, 4), hash);
+    }
+
+    /**
+     * 保存临时文件并在目标路径创建硬链接；相同内容已存在时直接链接已有的内容文件
+     * 内容文件以硬链接发布，已存在时失败而不是像 rename 那样替换，并发上传相同内容时只保留一份；
+     * 链接前内容文件被 release 删除时重新发布
+     * @param staged    临时文件，需与存储目录在同一文件系统，返回后可以删除
+     * @param hash  SHA-256
+     * @param target    对外的存储路径
+     * @throws IOException  异常
+     */
+    public void store(Path staged, String hash, Path target) throws IOException {
+        Path blob = blobPath(hash);
+        Files.createDirectories(target.getParent());
+        for (int attempt = 1; ; attempt++) {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, staged);
+            } catch (FileAlreadyExistsException e) {
+                log.debug("内容文件已存在: {}", hash);
+            }
+            try {
+                Files.createLink(target, blob);
+                return;
+            } catch (NoSuchFileException e) {
+                if (attempt >= MAX_STORE_ATTEMPTS) {
+                    throw e;
+                }
+                log.debug("内容文件在链接前被删除，重新发布: {}", hash);
+            }
+        }
+    }
+
+    /**
+     * 将已有文件纳入内容寻址存储：内容文件不存在时以该文件为内容文件，
+     * 否则用指向内容文件的硬链接原子替换该文件，释放重复占用的空间
+     * @param file  已有文件
+     * @param hash  SHA-256
+     * @return  是否释放了重复内容
+     * @throws IOException  异常
+     */
+    public boolean adopt(Path file, String hash) throws IOException {
+        Path blob = blobPath(hash);
+        if (!Files.exists(blob)) {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, file);
+                return false;
+            } catch (FileAlreadyExistsException e) {
+                log.debug("内容文件已存在: {}", hash);
+            }
+        }
+        if (Files.isSameFile(blob, file)) {
+            return false;
+        }
+        // 先在同目录创建链接再原子替换，替换过程中文件始终可读
+        Path tmp = file.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + file.getFileName());
+        Files.createLink(tmp, blob);
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 删除存储路径，内容文件不再被引用时一并删除
+     * @param target    存储路径
+     * @param hash  SHA-256
+     * @throws IOException  异常
+     */
+    public void release(Path target, String hash) throws IOException {
+        Files.deleteIfExists(target);
+        Path blob = blobPath(hash);
+        if (!Files.exists(blob)) {
+            return;
+        }
+        try {
+            int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+            if (links <= 1) {
+                Files.deleteIfExists(blob);
+            }
+        } catch (UnsupportedOperationException e) {
+            log.warn("文件系统不支持读取硬链接数，保留内容文件: {}", blob);
+        }
+    }
+}
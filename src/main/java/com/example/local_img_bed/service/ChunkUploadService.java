@@ -0,0 +1,357 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.dto.ChunkUploadInitDTO;
+import com.example.local_img_bed.dto.ChunkUploadStatusDTO;
+import com.example.local_img_bed.dto.ImageUploadDTO;
+import com.example.local_img_bed.utils.StringUtil;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 分片断点续传
+ * 分片按偏移量写入预分配的文件，客户端可以并行上传；SHA-256 随连续分片增量计算，合并时无需重新读取文件
+ * 会话只保存在内存中，启动时删除上次运行留下的过期分片文件
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ChunkUploadService {
+    private final ImageService imageService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.upload.max-chunk-size:16777216}")
+    private int maxChunkSize;
+
+    @Value("${image.upload.chunk-expire-minutes:1440}")
+    private long chunkExpireMinutes;
+
+    /**
+     * 分片上传的文件大小上限 (字节)，与普通上传的 multipart 限制保持一致
+     */
+    @Value("${image.upload.max-file-size:104857600}")
+    private long maxFileSize;
+
+    /**
+     * 同时进行的分片上传会话上限，每个会话占用一个打开的文件
+     */
+    @Value("${image.upload.max-sessions:100}")
+    private int maxSessions;
+
+    private final Map<String, ChunkSession> sessions = new ConcurrentHashMap<>();
+
+    private static class ChunkSession {
+        private final String uploadId;
+        private final String fileName;
+        private final String contentType;
+        private final Long categoryId;
+        private final long fileSize;
+        private final int chunkSize;
+        private final int totalChunks;
+        private final Path file;
+        private final FileChannel channel;
+        private final BitSet received = new BitSet();
+        // 正在写入的分片，同一分片的并发请求 (客户端重试与原请求) 只允许一个写入
+        private final BitSet writing = new BitSet();
+        private final MessageDigest digest = DigestUtils.getSha256Digest();
+        // 已计入摘要的连续分片数量
+        private int digestedChunks;
+        private volatile long lastActiveTime = System.currentTimeMillis();
+
+        private ChunkSession(String uploadId, ChunkUploadInitDTO init, int totalChunks, Path file, FileChannel channel) {
+            this.uploadId = uploadId;
+            this.fileName = init.getFileName();
+            this.contentType = init.getContentType();
+            this.categoryId = init.getCategoryId() == null ? 1L : init.getCategoryId();
+            this.fileSize = init.getFileSize();
+            this.chunkSize = init.getChunkSize();
+            this.totalChunks = totalChunks;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        private long chunkLength(int index) {
+            return index < totalChunks - 1 ? chunkSize : fileSize - (long) chunkSize * index;
+        }
+    }
+
+    /**
+     * 删除上次运行留下的分片文件，内存中的会话已经丢失，这些文件无法再续传。
+     * 只删除超过会话过期时间未修改的文件，共享存储上其他节点进行中的上传不受影响
+     */
+    @PostConstruct
+    public void cleanupOrphanedParts() {
+        Path chunkDir = Paths.get(rootPath, "tmp", "chunks");
+        if (!Files.isDirectory(chunkDir)) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - chunkExpireMinutes * 60_000;
+        int removed = 0;
+        try (Stream<Path> files = Files.list(chunkDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(".part")) {
+                    continue;
+                }
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < expireBefore && Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // 已被其他节点删除
+                }
+            }
+        } catch (IOException e) {
+            log.error("清理分片临时文件失败: {}", chunkDir, e);
+        }
+        if (removed > 0) {
+            log.info("删除 {} 个遗留的分片临时文件", removed);
+        }
+    }
+
+    /**
+     * 初始化分片上传，预分配目标文件
+     * @param init  上传参数
+     * @return  上传状态
+     * @throws IOException  异常
+     */
+    public ChunkUploadStatusDTO init(ChunkUploadInitDTO init) throws IOException {
+        if (StringUtil.isEmpty(init.getFileName()) || init.getFileSize() == null || init.getFileSize() <= 0) {
+            throw new IllegalArgumentException("文件名或文件大小无效");
+        }
+        if (init.getFileSize() > maxFileSize) {
+            throw new IllegalArgumentException("文件大小不能超过 " + maxFileSize + " 字节");
+        }
+        if (init.getChunkSize() == null || init.getChunkSize() <= 0 || init.getChunkSize() > maxChunkSize) {
+            throw new IllegalArgumentException("分片大小必须在 1 到 " + maxChunkSize + " 字节之间");
+        }
+        long chunks = (init.getFileSize() + init.getChunkSize() - 1) / init.getChunkSize();
+        if (chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("分片数量过多");
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("进行中的分片上传过多，请稍后重试");
+        }
+
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        Path chunkDir = Paths.get(rootPath, "tmp", "chunks");
+        Files.createDirectories(chunkDir);
+        Path file = chunkDir.resolve(uploadId + ".part");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(init.getFileSize());
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        ChunkSession session = new ChunkSession(uploadId, init, (int) chunks, file, channel);
+        sessions.put(uploadId, session);
+        return toStatus(session);
+    }
+
+    /**
+     * 写入一个分片，同一会话的不同分片可以并发写入
+     * @param uploadId  上传会话ID
+     * @param index 分片序号，从0开始
+     * @param inputStream   分片内容
+     * @return  上传状态
+     * @throws IOException  异常
+     */
+    public ChunkUploadStatusDTO putChunk(String uploadId, int index, InputStream inputStream) throws IOException {
+        ChunkSession session = getSession(uploadId);
+        if (index < 0 || index >= session.totalChunks) {
+            throw new IllegalArgumentException("分片序号越界: " + index);
+        }
+        session.lastActiveTime = System.currentTimeMillis();
+
+        synchronized (session) {
+            if (session.received.get(index)) {
+                return toStatus(session);
+            }
+            if (session.writing.get(index)) {
+                throw new IllegalStateException("分片 " + index + " 正在上传");
+            }
+            session.writing.set(index);
+        }
+
+        boolean written = false;
+        try {
+            int length = (int) session.chunkLength(index);
+            byte[] bytes = inputStream.readNBytes(length);
+            if (bytes.length != length || inputStream.read() != -1) {
+                throw new IllegalArgumentException("分片 " + index + " 长度应为 " + length + " 字节");
+            }
+
+            // 按偏移量写入，FileChannel 的定位写入是线程安全的
+            long offset = (long) session.chunkSize * index;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                offset += session.channel.write(buffer, offset);
+            }
+
+            synchronized (session) {
+                session.writing.clear(index);
+                session.received.set(index);
+                written = true;
+                advanceDigest(session, index, bytes);
+                return toStatus(session);
+            }
+        } finally {
+            if (!written) {
+                // 写入失败时释放占用，客户端可以重传
+                synchronized (session) {
+                    session.writing.clear(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询已接收的分片
+     * @param uploadId  上传会话ID
+     * @return  上传状态
+     */
+    public ChunkUploadStatusDTO getStatus(String uploadId) {
+        ChunkSession session = getSession(uploadId);
+        synchronized (session) {
+            return toStatus(session);
+        }
+    }
+
+    /**
+     * 完成上传，交给常规的去重、感知哈希和入库流程
+     * @param uploadId  上传会话ID
+     * @return  上传结果
+     * @throws IOException  异常
+     */
+    public ImageUploadDTO complete(String uploadId) throws IOException {
+        ChunkSession session = getSession(uploadId);
+        String hash;
+        synchronized (session) {
+            if (session.digestedChunks < session.totalChunks) {
+                throw new IllegalStateException("仍有 " + (session.totalChunks - session.received.cardinality()) + " 个分片未上传");
+            }
+            if (sessions.remove(uploadId) == null) {
+                throw new IllegalStateException("上传会话已完成: " + uploadId);
+            }
+            hash = Hex.encodeHexString(session.digest.digest());
+        }
+        session.channel.force(false);
+        session.channel.close();
+
+        ImageService.StagedFile staged = new ImageService.StagedFile(session.file, hash, session.fileSize);
+        return imageService.storeStagedFile(staged, session.fileName, session.contentType, session.categoryId);
+    }
+
+    /**
+     * 取消上传并删除临时文件
+     * @param uploadId  上传会话ID
+     */
+    public void abort(String uploadId) {
+        ChunkSession session = sessions.remove(uploadId);
+        if (session != null) {
+            discard(session);
+        }
+    }
+
+    /**
+     * 清理长时间无活动的上传会话
+     */
+    @Scheduled(fixedDelayString = "${image.upload.chunk-cleanup-interval:600000}")
+    public void cleanupExpiredSessions() {
+        long expireBefore = System.currentTimeMillis() - chunkExpireMinutes * 60_000;
+        sessions.values().removeIf(session -> {
+            if (session.lastActiveTime < expireBefore) {
+                log.info("清理过期分片上传: {} ({})", session.uploadId, session.fileName);
+                discard(session);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 将连续到达的分片计入摘要；提前到达的分片等前面的分片就绪后，从文件中按偏移量读回
+     * @param session   上传会话
+     * @param index 当前分片序号
+     * @param bytes 当前分片内容
+     * @throws IOException  异常
+     */
+    private void advanceDigest(ChunkSession session, int index, byte[] bytes) throws IOException {
+        if (index != session.digestedChunks) {
+            return;
+        }
+        session.digest.update(bytes);
+        session.digestedChunks++;
+
+        while (session.digestedChunks < session.totalChunks && session.received.get(session.digestedChunks)) {
+            int next = session.digestedChunks;
+            ByteBuffer buffer = ByteBuffer.allocate((int) session.chunkLength(next));
+            long position = (long) session.chunkSize * next;
+            while (buffer.hasRemaining()) {
+                int read = session.channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("分片文件长度不足: " + session.file);
+                }
+            }
+            buffer.flip();
+            session.digest.update(buffer);
+            session.digestedChunks++;
+        }
+    }
+
+    private ChunkSession getSession(String uploadId) {
+        ChunkSession session = sessions.get(uploadId);
+        if (session == null) {
+            throw new IllegalArgumentException("上传会话不存在或已过期: " + uploadId);
+        }
+        return session;
+    }
+
+    private void discard(ChunkSession session) {
+        try {
+            session.channel.close();
+            Files.deleteIfExists(session.file);
+        } catch (IOException e) {
+            log.error("删除分片临时文件失败: {}", session.file, e);
+        }
+    }
+
+    private ChunkUploadStatusDTO toStatus(ChunkSession session) {
+        List<Integer> receivedChunks = new ArrayList<>(session.received.cardinality());
+        session.received.stream().forEach(receivedChunks::add);
+
+        ChunkUploadStatusDTO status = new ChunkUploadStatusDTO();
+        status.setUploadId(session.uploadId);
+        status.setFileName(session.fileName);
+        status.setFileSize(session.fileSize);
+        status.setChunkSize(session.chunkSize);
+        status.setTotalChunks(session.totalChunks);
+        status.setReceivedChunks(receivedChunks);
+        status.setComplete(receivedChunks.size() == session.totalChunks);
+        return status;
+    }
+}
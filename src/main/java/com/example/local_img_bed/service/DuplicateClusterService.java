@@ -0,0 +1,329 @@
+package com.example.local_img_bed.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.example.local_img_bed.dto.DuplicateGroupDTO;
+import com.example.local_img_bed.dto.DuplicateScanStatusDTO;
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 全库近似重复图片聚类
+ * 复用相似度索引的分段思路：按 pHash 分段建桶，只比较段距离不超过 t/4 的桶对，
+ * 各段的桶区间由 fork/join 并行处理，命中的图片对用无锁并查集合并成分组
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class DuplicateClusterService {
+    // 阈值过大时每个桶需要比较的邻居桶数量接近全部桶，退化为两两比较
+    private static final int MAX_THRESHOLD = 20;
+    // 单个 fork/join 任务直接处理的桶数量
+    private static final int BUCKETS_PER_TASK = 256;
+
+    private final SimilarityIndexService similarityIndexService;
+    private final ImageMapper imageMapper;
+    private final ImageService imageService;
+
+    @Value("${image.duplicates.parallelism:0}")
+    private int parallelism;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile DuplicateScanStatusDTO status = newStatus("IDLE", null);
+    private volatile List<DuplicateGroup> groups = List.of();
+
+    private record DuplicateGroup(long[] imageIds, long totalSize, long keeperId, long keeperSize) {
+    }
+
+    /**
+     * 启动后台扫描
+     * @param threshold 汉明距离阈值
+     * @return  扫描状态
+     */
+    public DuplicateScanStatusDTO startScan(int threshold) {
+        if (threshold < 0 || threshold > MAX_THRESHOLD) {
+            throw new IllegalArgumentException("阈值必须在 0 到 " + MAX_THRESHOLD + " 之间");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("重复图片扫描正在进行中");
+        }
+        status = newStatus("RUNNING", threshold);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        pool.execute(() -> {
+            try {
+                scan(pool, threshold);
+            } catch (Exception e) {
+                log.error("重复图片扫描失败", e);
+                DuplicateScanStatusDTO failed = newStatus("FAILED", threshold);
+                failed.setStartTime(status.getStartTime());
+                failed.setFinishTime(LocalDateTime.now());
+                failed.setMessage(e.getMessage());
+                status = failed;
+            } finally {
+                running.set(false);
+                pool.shutdown();
+            }
+        });
+        return status;
+    }
+
+    /**
+     * 获取扫描状态
+     * @return  扫描状态
+     */
+    public DuplicateScanStatusDTO getStatus() {
+        return status;
+    }
+
+    /**
+     * 分页查询最近一次扫描得到的重复分组，按可释放空间降序
+     * @param page  当前页
+     * @param size  每页分组数量
+     * @return  分组分页
+     */
+    public IPage<DuplicateGroupDTO> getGroups(int page, int size) {
+        List<DuplicateGroup> current = groups;
+        Page<DuplicateGroupDTO> result = new Page<>(page, size, current.size());
+        int from = (int) Math.min((long) (page - 1) * size, current.size());
+        int to = Math.min(from + size, current.size());
+
+        List<DuplicateGroupDTO> records = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            DuplicateGroup group = current.get(i);
+            DuplicateGroupDTO dto = new DuplicateGroupDTO();
+            dto.setGroupId(i + 1);
+            dto.setImageCount(group.imageIds().length);
+            dto.setTotalSize(group.totalSize());
+            dto.setReclaimableSize(group.totalSize() - group.keeperSize());
+            dto.setKeeperId(group.keeperId());
+            dto.setImages(imageService.listByIdsInOrder(Arrays.stream(group.imageIds()).boxed().toList()));
+            records.add(dto);
+        }
+        result.setRecords(records);
+        return result;
+    }
+
+    private void scan(ForkJoinPool pool, int threshold) {
+        long start = System.currentTimeMillis();
+        long[][] snapshot = similarityIndexService.snapshot();
+        long[] ids = snapshot[0];
+        long[] hashes = snapshot[1];
+        int n = ids.length;
+
+        // 按段做计数排序：members[段] 中同一段值的图片下标连续存放，bucketStart 为每个桶的起点
+        int buckets = SimilarityIndexService.BAND_BUCKETS;
+        int[][] bucketStart = new int[SimilarityIndexService.BANDS][buckets + 1];
+        int[][] members = new int[SimilarityIndexService.BANDS][n];
+        for (int band = 0; band < SimilarityIndexService.BANDS; band++) {
+            int[] starts = bucketStart[band];
+            for (int i = 0; i < n; i++) {
+                starts[SimilarityIndexService.band(hashes[i], band) + 1]++;
+            }
+            for (int b = 0; b < buckets; b++) {
+                starts[b + 1] += starts[b];
+            }
+            int[] fill = Arrays.copyOf(starts, buckets);
+            for (int i = 0; i < n; i++) {
+                members[band][fill[SimilarityIndexService.band(hashes[i], band)]++] = i;
+            }
+        }
+
+        AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            parent.set(i, i);
+        }
+        int[] masks = SimilarityIndexService.neighbours(0, threshold / SimilarityIndexService.BANDS);
+        for (int band = 0; band < SimilarityIndexService.BANDS; band++) {
+            pool.invoke(new BucketPairTask(hashes, members[band], bucketStart[band], masks, threshold, parent, 0, buckets));
+        }
+
+        // 收集包含两张及以上图片的分组
+        int[] roots = new int[n];
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++) {
+            roots[i] = find(parent, i);
+            counts[roots[i]]++;
+        }
+        Map<Integer, List<Integer>> clusters = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (counts[roots[i]] > 1) {
+                clusters.computeIfAbsent(roots[i], k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<DuplicateGroup> result = buildGroups(clusters.values(), ids);
+        groups = result;
+
+        DuplicateScanStatusDTO done = newStatus("DONE", threshold);
+        done.setStartTime(status.getStartTime());
+        done.setFinishTime(LocalDateTime.now());
+        done.setScannedImages(n);
+        done.setGroups(result.size());
+        status = done;
+        log.info("重复图片扫描完成: {} 张图片, {} 个分组, 耗时 {} 毫秒", n, result.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 补充文件大小，选出建议保留的图片，并按可释放空间排序
+     * @param clusters  分组内的图片下标
+     * @param ids   下标到图片id的映射
+     * @return  分组
+     */
+    private List<DuplicateGroup> buildGroups(Iterable<List<Integer>> clusters, long[] ids) {
+        List<Long> clusteredIds = new ArrayList<>();
+        clusters.forEach(cluster -> cluster.forEach(i -> clusteredIds.add(ids[i])));
+        Map<Long, Image> images = new HashMap<>();
+        for (int from = 0; from < clusteredIds.size(); from += 1000) {
+            LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+            query.select(Image::getId, Image::getFileSize, Image::getCreateTime)
+                    .in(Image::getId, clusteredIds.subList(from, Math.min(from + 1000, clusteredIds.size())));
+            imageMapper.selectList(query).forEach(image -> images.put(image.getId(), image));
+        }
+
+        // 保留文件最大的一张，大小相同时保留最早上传的
+        Comparator<Image> keeperOrder = Comparator.comparing((Image image) -> image.getFileSize() == null ? 0L : image.getFileSize()).reversed()
+                .thenComparing(Image::getCreateTime, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(Image::getId);
+
+        List<DuplicateGroup> result = new ArrayList<>();
+        for (List<Integer> cluster : clusters) {
+            List<Image> groupImages = cluster.stream()
+                    .map(i -> images.get(ids[i]))
+                    .filter(image -> image != null)
+                    .sorted(keeperOrder)
+                    .toList();
+            if (groupImages.size() < 2) {
+                continue;
+            }
+            long totalSize = groupImages.stream().mapToLong(image -> image.getFileSize() == null ? 0L : image.getFileSize()).sum();
+            Image keeper = groupImages.get(0);
+            result.add(new DuplicateGroup(
+                    groupImages.stream().mapToLong(Image::getId).toArray(),
+                    totalSize,
+                    keeper.getId(),
+                    keeper.getFileSize() == null ? 0L : keeper.getFileSize()));
+        }
+        result.sort(Comparator.comparingLong((DuplicateGroup group) -> group.totalSize() - group.keeperSize()).reversed());
+        return result;
+    }
+
+    /**
+     * 比较一个段内 [from, to) 桶与其邻居桶中的图片对
+     */
+    private static class BucketPairTask extends RecursiveAction {
+        private final long[] hashes;
+        private final int[] members;
+        private final int[] bucketStart;
+        private final int[] masks;
+        private final int threshold;
+        private final AtomicIntegerArray parent;
+        private final int from;
+        private final int to;
+
+        BucketPairTask(long[] hashes, int[] members, int[] bucketStart, int[] masks, int threshold,
+                       AtomicIntegerArray parent, int from, int to) {
+            this.hashes = hashes;
+            this.members = members;
+            this.bucketStart = bucketStart;
+            this.masks = masks;
+            this.threshold = threshold;
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BUCKETS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BucketPairTask(hashes, members, bucketStart, masks, threshold, parent, from, mid),
+                        new BucketPairTask(hashes, members, bucketStart, masks, threshold, parent, mid, to));
+                return;
+            }
+            for (int bucket = from; bucket < to; bucket++) {
+                int aStart = bucketStart[bucket];
+                int aEnd = bucketStart[bucket + 1];
+                if (aStart == aEnd) {
+                    continue;
+                }
+                for (int mask : masks) {
+                    int other = bucket ^ mask;
+                    // 每对桶只比较一次
+                    if (other < bucket) {
+                        continue;
+                    }
+                    int bStart = bucketStart[other];
+                    int bEnd = bucketStart[other + 1];
+                    for (int a = aStart; a < aEnd; a++) {
+                        int i = members[a];
+                        for (int b = other == bucket ? a + 1 : bStart; b < bEnd; b++) {
+                            int j = members[b];
+                            if (Long.bitCount(hashes[i] ^ hashes[j]) <= threshold) {
+                                union(parent, i, j);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int find(AtomicIntegerArray parent, int x) {
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            int grandParent = parent.get(p);
+            if (p != grandParent) {
+                // 路径减半
+                parent.compareAndSet(x, p, grandParent);
+            }
+            x = grandParent;
+        }
+    }
+
+    private static void union(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            int rootA = find(parent, a);
+            int rootB = find(parent, b);
+            if (rootA == rootB) {
+                return;
+            }
+            // 始终把较大的根挂到较小的根下，避免并发时形成环
+            int small = Math.min(rootA, rootB);
+            int large = Math.max(rootA, rootB);
+            if (parent.compareAndSet(large, large, small)) {
+                return;
+            }
+        }
+    }
+
+    private static DuplicateScanStatusDTO newStatus(String state, Integer threshold) {
+        DuplicateScanStatusDTO status = new DuplicateScanStatusDTO();
+        status.setState(state);
+        status.setThreshold(threshold);
+        if ("RUNNING".equals(state)) {
+            status.setStartTime(LocalDateTime.now());
+        }
+        return status;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 删除图片后的文件回收
+ * 数据库记录在事务中批量删除，原图、略缩图和派生图文件在事务提交后由后台线程删除，删除请求不等待磁盘 IO；
+ * 删除失败的文件按指数退避重试，超过重试次数后记录日志
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class FileReaperService {
+    private final BlobStoreService blobStoreService;
+    private final StorageBackend storageBackend;
+    private final TransformService transformService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.delete.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${image.delete.retry-delay:5000}")
+    private long retryDelay;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService retryScheduler;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("file-reaper-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("file-reaper-retry-"));
+    }
+
+    /**
+     * 尽量删除完已提交的任务，未完成的文件成为孤立文件，不影响数据
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 回收已删除图片的文件；在事务中调用时等事务提交后再执行，事务回滚时文件保留
+     * @param originals 原图，需要 id、storage_path 和 hash
+     * @param thumbnailPaths    略缩图存储路径
+     */
+    public void submit(Collection<Image> originals, Collection<String> thumbnailPaths) {
+        List<Image> images = new ArrayList<>(originals);
+        List<String> thumbnails = new ArrayList<>(thumbnailPaths);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    executor.execute(() -> reap(images, thumbnails, true, 0));
+                }
+            });
+        } else {
+            executor.execute(() -> reap(images, thumbnails, true, 0));
+        }
+    }
+
+    /**
+     * 删除原图文件，内容寻址存储下只在内容不再被引用时删除内容文件
+     * @param image 图片
+     * @throws IOException  异常
+     */
+    public void deleteOriginal(Image image) throws IOException {
+        if (blobStoreService.isEnabled()) {
+            blobStoreService.release(Paths.get(rootPath, image.getStoragePath()), image.getHash());
+        }
+        // 冷热分层时容量层中的文件同样删除
+        storageBackend.delete(ThumbnailManifestService.toStaticPath(image.getStoragePath()));
+    }
+
+    /**
+     * 删除文件，失败的部分稍后重试
+     * @param images    原图
+     * @param thumbnails    略缩图存储路径
+     * @param evictTransforms   是否清理派生图缓存，只在第一次执行
+     * @param attempt   已重试次数
+     */
+    private void reap(List<Image> images, List<String> thumbnails, boolean evictTransforms, int attempt) {
+        List<Image> failedImages = new ArrayList<>();
+        for (Image image : images) {
+            if (evictTransforms) {
+                transformService.evictImage(image.getId());
+            }
+            try {
+                deleteOriginal(image);
+            } catch (IOException | RuntimeException e) {
+                log.debug("删除原图文件失败: {}", image.getStoragePath(), e);
+                failedImages.add(image);
+            }
+        }
+        List<String> failedThumbnails = new ArrayList<>();
+        for (String thumbnail : thumbnails) {
+            // 打包卷中的略缩图由压缩回收
+            if (ThumbnailVolumeService.isVolumePath(ThumbnailManifestService.toStaticPath(thumbnail))) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(Paths.get(rootPath, thumbnail));
+            } catch (IOException e) {
+                log.debug("删除略缩图文件失败: {}", thumbnail, e);
+                failedThumbnails.add(thumbnail);
+            }
+        }
+        if (failedImages.isEmpty() && failedThumbnails.isEmpty()) {
+            return;
+        }
+        if (attempt >= maxRetries) {
+            log.error("删除文件失败，已重试 {} 次，放弃 {} 个原图、{} 个略缩图: {} {}", attempt,
+                    failedImages.size(), failedThumbnails.size(),
+                    failedImages.stream().map(Image::getStoragePath).toList(), failedThumbnails);
+            return;
+        }
+        long delay = retryDelay << attempt;
+        log.warn("{} 个原图、{} 个略缩图删除失败，{} 毫秒后重试", failedImages.size(), failedThumbnails.size(), delay);
+        retryScheduler.schedule(() -> executor.execute(() -> reap(failedImages, failedThumbnails, false, attempt + 1)),
+                delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.dto.ProcessingStatusDTO;
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import com.example.local_img_bed.utils.PHashUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传后的后台处理流水线
+ * 感知哈希、略缩图等派生数据在有界队列中异步计算，失败按指数退避重试；
+ * 队列满或重启丢失的任务由定时补偿任务从数据库中重新捞取 (p_hash 为空的图片)
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ImageProcessingService {
+    private final ImageMapper imageMapper;
+    private final SimilarityIndexService similarityIndexService;
+    private final ThumbnailService thumbnailService;
+    private final StorageBackend storageBackend;
+
+    @Value("${image.thumbnail.eager:false}")
+    private boolean eagerThumbnails;
+
+    @Value("${image.processing.threads:2}")
+    private int threads;
+
+    @Value("${image.processing.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${image.processing.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${image.processing.retry-delay:5000}")
+    private long retryDelay;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService retryScheduler;
+
+    // 已入队、处理中或等待重试的图片，避免重复入队
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    // 超过重试次数的图片，补偿任务不再处理
+    private final Set<Long> failed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger retrying = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("image-process-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("image-process-retry-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交图片到后台处理；在事务中调用时等事务提交后再入队，保证工作线程能读到新记录
+     * @param imageId   图片id
+     */
+    public void submit(Long imageId) {
+        if (imageId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(imageId, 0);
+                }
+            });
+        } else {
+            enqueue(imageId, 0);
+        }
+    }
+
+    /**
+     * 获取流水线积压情况
+     * @return  ProcessingStatusDTO
+     */
+    public ProcessingStatusDTO getStatus() {
+        ProcessingStatusDTO status = new ProcessingStatusDTO();
+        status.setQueued(executor.getQueue().size());
+        status.setRunning(running.get());
+        status.setRetrying(retrying.get());
+        status.setFailed(failed.size());
+        status.setCompleted(completed.get());
+        status.setQueueCapacity(queueCapacity);
+        return status;
+    }
+
+    /**
+     * 补偿任务：把缺少感知哈希且不在队列中的图片重新入队，直到队列填满
+     */
+    @Scheduled(initialDelayString = "${image.processing.backfill-initial-delay:30000}",
+            fixedDelayString = "${image.processing.backfill-interval:300000}")
+    public void backfill() {
+        Long afterId = null;
+        int submitted = 0;
+        while (executor.getQueue().remainingCapacity() > 0) {
+            List<Long> ids = imageMapper.selectIdsWithoutPHash(afterId, 500);
+            if (ids.isEmpty()) {
+                break;
+            }
+            for (Long id : ids) {
+                if (!failed.contains(id) && enqueue(id, 0)) {
+                    submitted++;
+                }
+            }
+            afterId = ids.get(ids.size() - 1);
+        }
+        if (submitted > 0) {
+            log.info("补偿任务重新提交 {} 张待处理图片", submitted);
+        }
+    }
+
+    /**
+     * 入队
+     * @param imageId   图片id
+     * @param attempt   第几次重试
+     * @return  是否新入队
+     */
+    private boolean enqueue(Long imageId, int attempt) {
+        if (attempt == 0 && !pending.add(imageId)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> process(imageId, attempt));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 队列已满，交给补偿任务稍后处理
+            pending.remove(imageId);
+            log.warn("图片处理队列已满，图片 {} 稍后由补偿任务处理", imageId);
+            return false;
+        }
+    }
+
+    private void process(Long imageId, int attempt) {
+        running.incrementAndGet();
+        try {
+            Image image = imageMapper.selectById(imageId);
+            if (image != null) {
+                computePHash(image);
+                if (eagerThumbnails) {
+                    thumbnailService.generateAllThumbnails(localOriginal(image).toFile(), image.getId());
+                }
+            }
+            pending.remove(imageId);
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            if (attempt < maxRetries) {
+                long delay = retryDelay << attempt;
+                log.warn("处理图片 {} 失败，{} 毫秒后第 {} 次重试: {}", imageId, delay, attempt + 1, e.getMessage());
+                retrying.incrementAndGet();
+                retryScheduler.schedule(() -> {
+                    retrying.decrementAndGet();
+                    enqueue(imageId, attempt + 1);
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                log.error("处理图片 {} 失败，已超过最大重试次数", imageId, e);
+                pending.remove(imageId);
+                failed.add(imageId);
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * 从上传的临时文件计算感知哈希，远程存储在上传前调用，后台处理时不必再下载刚上传的对象
+     * @param staged    临时文件
+     * @return  感知哈希，无法解码时返回 null，由后台处理重试
+     */
+    public Long computePHash(Path staged) {
+        try {
+            return PHashUtil.calculatePHash(staged);
+        } catch (Exception e) {
+            log.debug("从临时文件计算感知哈希失败: {}", staged, e);
+            return null;
+        }
+    }
+
+    /**
+     * 计算并保存感知哈希，上传时已计算的只加入相似度索引
+     * @param image 图片
+     * @throws Exception    异常
+     */
+    private void computePHash(Image image) throws Exception {
+        if (image.getPHash() != null) {
+            similarityIndexService.add(image.getId(), image.getPHash());
+            return;
+        }
+        long pHash = PHashUtil.calculatePHash(localOriginal(image));
+        imageMapper.updatePHash(image.getId(), pHash);
+        similarityIndexService.add(image.getId(), pHash);
+    }
+
+    /**
+     * 原图的本地文件，远程存储时下载到本地缓存
+     * @param image 图片
+     * @return  本地文件
+     * @throws IOException  异常
+     */
+    private Path localOriginal(Image image) throws IOException {
+        return storageBackend.localFile(ThumbnailManifestService.toStaticPath(image.getStoragePath()));
+    }
+}
@@ -7,43 +7,46 @@ import java.util.Map;
 import com.example.local_img_bed.dto.ImageDTO;
 import com.example.local_img_bed.dto.ImageStatsDto;
 import com.example.local_img_bed.dto.ImageUploadDTO;
+import com.example.local_img_bed.dto.InstantUploadDTO;
 import com.example.local_img_bed.entity.Category;
 import com.example.local_img_bed.entity.Image;
-import com.example.local_img_bed.entity.Thumbnail;
 import com.example.local_img_bed.mapper.CategoryMapper;
 import com.example.local_img_bed.mapper.ImageMapper;
 import com.example.local_img_bed.mapper.ThumbnailMapper;
+import com.example.local_img_bed.utils.PHashUtil;
 import com.example.local_img_bed.utils.StringUtil;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
 import java.io.InputStream;
-import org.opencv.core.MatOfByte;
 
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.FileStore;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -59,6 +62,18 @@ public class ImageService {
     private final ThumbnailService thumbnailService;
     private final ThumbnailMapper thumbnailMapper;
     private final CategoryService categoryService;
+    private final ImageProcessingService imageProcessingService;
+    private final SimilarityIndexService similarityIndexService;
+    private final ThumbnailManifestService thumbnailManifestService;
+    private final ThumbnailEvictionService thumbnailEvictionService;
+    private final BlobStoreService blobStoreService;
+    private final StorageBackend storageBackend;
+    private final FileReaperService fileReaperService;
+
+    /**
+     * 批量删除、还原时每条 IN 语句的id数量
+     */
+    private static final int DELETE_BATCH_SIZE = 1000;
 
     @Value("${image.storage.root-path}")
     private String rootPath;
@@ -73,134 +88,174 @@ public class ImageService {
     );
 
     /**
-     * 计算图片的感知哈希 (pHash)
-     * @param inputStream 图片输入流
-     * @return pHash 字符串
-     * @throws IOException 异常
+     * 获取或创建略缩图
+     * 优先从略缩图清单中解析，命中时不访问数据库和文件系统；
+     * 文件被外部删除时由发送文件的一方发现，移除清单记录后再次调用即重新生成
+     * @param id    原图id
+     * @param size  略缩图大小
+     * @param format    输出格式，null 表示与原图格式一致
+     * @return  图片相对路径，可能是原图，防止略缩图获取失败
+     * @throws IOException  异常
      */
-    private String calculatePHash(InputStream inputStream) throws IOException {
-        byte[] bytes = inputStream.readAllBytes();
-        Mat img = Imgcodecs.imdecode(new MatOfByte(bytes), Imgcodecs.IMREAD_GRAYSCALE);
-
-        if (img.empty()) {
-            throw new IOException("无法加载图片或图片为空");
+    public String getOrCreateThumbnailAndGetStaticPath(Long id, String size, String format) throws IOException {
+        String type = ThumbnailService.thumbnailType(size, format);
+        String cachedPath = thumbnailManifestService.resolve(id, type);
+        if (cachedPath != null) {
+            thumbnailEvictionService.recordAccess(id, type);
+            return cachedPath;
         }
 
-        Mat resizedImg = new Mat();
-        Imgproc.resize(img, resizedImg, new Size(32, 32));
-
-        resizedImg.convertTo(resizedImg, CvType.CV_32F);
-
-        Mat dct = new Mat();
-        Core.dct(resizedImg, dct);
-
-        Mat dct8x8 = new Mat(dct, new org.opencv.core.Rect(0, 0, 8, 8));
+        // 原图路径以数据库记录为准，不信任客户端传入的路径
+        String originalImageRelativePath = thumbnailManifestService.loadStoragePath(id);
+        // 不存在的规则直接返回原图，不写入清单
+        if (!thumbnailService.supports(size)) {
+            return originalImageRelativePath;
+        }
+        // 检查文件是否存在，远程存储时先下载到本地
+        Path originalImagePath;
+        try {
+            originalImagePath = storageBackend.localFile(originalImageRelativePath);
+        } catch (NoSuchFileException e) {
+            originalImagePath = null;
+        }
+        if (originalImagePath == null || !Files.exists(originalImagePath)) {
+            throw new IOException("Original image not found at path: " + originalImageRelativePath);
+        }
+        // 获取略缩图路劲，没有获取到略缩图时记录为使用原图
+        String returnPath = thumbnailService.generateThumbnail(originalImagePath.toFile(), size, format, id);
+        thumbnailManifestService.putThumbnail(id, type, returnPath);
+        if (returnPath != null) {
+            thumbnailEvictionService.recordAccess(id, type);
+        }
+        return returnPath == null ? originalImageRelativePath : ThumbnailManifestService.toStaticPath(returnPath);
+    }
 
-        double total = 0;
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                total += dct8x8.get(i, j)[0];
-            }
+    /**
+     * 上传原图
+     * @param file  上传文件
+     * @param categoryId    分类id
+     * @return  返回上传结果
+     * @throws IOException  异常
+     */
+    public ImageUploadDTO uploadImage(MultipartFile file, Long categoryId) throws IOException {
+        // 1. 单次读取上传流，写入临时文件的同时计算文件哈希值
+        StagedFile staged;
+        try (InputStream inputStream = file.getInputStream()) {
+            staged = stageUpload(inputStream);
         }
-        total -= dct8x8.get(0, 0)[0]; // Exclude the DC component
-        double avg = total / (8 * 8 - 1);
+        return storeStagedFile(staged, file.getOriginalFilename(), file.getContentType(), categoryId);
+    }
 
-        StringBuilder pHash = new StringBuilder();
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (i == 0 && j == 0) {
-                    continue;
-                }
-                pHash.append(dct8x8.get(i, j)[0] > avg ? '1' : '0');
-            }
+    /**
+     * 秒传：按客户端提供的SHA-256查找已存在的图片，命中时无需再上传文件内容
+     * 指定分类且与已存在图片的分类不同时，把图片移动到指定分类
+     * @param instantUpload 文件哈希、大小及分类
+     * @return  已存在图片的上传结果，不存在时返回null
+     */
+    public ImageUploadDTO instantUpload(InstantUploadDTO instantUpload) {
+        String hash = instantUpload.getHash();
+        if (StringUtil.isEmpty(hash) || !hash.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("无效的SHA-256: " + hash);
+        }
+        Long categoryId = instantUpload.getCategoryId();
+        if (categoryId != null && categoryMapper.selectById(categoryId) == null) {
+            throw new IllegalArgumentException("分类不存在: " + categoryId);
         }
 
-        img.release();
-        resizedImg.release();
-        dct.release();
-        dct8x8.release();
+        LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+        query.eq(Image::getHash, hash.toLowerCase());
+        Image image = imageMapper.selectOne(query);
 
-        return pHash.toString();
+        // 客户端给出文件大小时一并校验，避免错误的哈希命中其他图片
+        if (image == null || (instantUpload.getFileSize() != null && !instantUpload.getFileSize().equals(image.getFileSize()))) {
+            return null;
+        }
+        // 回收站中的图片重新上传时还原
+        if (!restoreIfTrashed(image)) {
+            return null;
+        }
+        if (categoryId != null && !categoryId.equals(image.getCategoryId())) {
+            imageMapper.moveImage(image.getId(), categoryId);
+        }
+        return new ImageUploadDTO(image.getId(), image.getOriginalName());
     }
 
     /**
-     * 获取或创建略缩图
-     * @param id    原图od
-     * @param size  略缩图大小
-     * @param originalImageRelativePath 原图相对路径
-     * @return  图片相对路径，可能是原图，防止略缩图获取失败
-     * @throws IOException  异常
+     * 已写入存储目录临时区的上传文件
+     * @param path  临时文件路径
+     * @param hash  文件SHA-256哈希
+     * @param size  文件大小
      */
-    public String getOrCreateThumbnailAndGetStaticPath(Long id, String size, String originalImageRelativePath) throws IOException {
-        // 检查路径是否异常，遍历攻击
-        Path originalImagePath = Paths.get(rootPath, originalImageRelativePath).toAbsolutePath();
-        if (!originalImagePath.startsWith(Paths.get(rootPath).toAbsolutePath())) {
-            throw new IOException("Path traversal attempt detected: " + originalImageRelativePath);
-        }
-        // 检查文件是否存在
-        if (!Files.exists(originalImagePath)) {
-            throw new IOException("Original image not found at path: " + originalImageRelativePath);
-        }
-        // 获取略缩图路劲
-        String returnPath = thumbnailService.generateThumbnail(originalImagePath.toFile(), size, id);
-        // 如果没有获取到略缩图，返回原图
-        if(null == returnPath){
-            returnPath = originalImageRelativePath;
-        }
-        return returnPath.replace(File.separator, "/");
+    public record StagedFile(Path path, String hash, long size) {
     }
 
     /**
-     * 计算两个哈希字符串的汉明距离
-     * @param hash1 哈希字符串1
-     * @param hash2 哈希字符串2
-     * @return 汉明距离
+     * 将输入流写入存储根目录下的临时文件，并在写入过程中计算SHA-256
+     * 临时文件与最终目录位于同一文件系统，后续可以原子重命名
+     * @param inputStream   上传输入流
+     * @return  临时文件信息
+     * @throws IOException  异常
      */
-    private int hammingDistance(String hash1, String hash2) {
-        if (hash1 == null || hash2 == null || hash1.length() != hash2.length()) {
-            // 实际应用中可能需要更健壮的错误处理，例如返回-1或抛出特定异常
-            return Integer.MAX_VALUE; // 返回一个大值表示不匹配或错误
-        }
-        int distance = 0;
-        for (int i = 0; i < hash1.length(); i++) {
-            if (hash1.charAt(i) != hash2.charAt(i)) {
-                distance++;
-            }
+    public StagedFile stageUpload(InputStream inputStream) throws IOException {
+        Path tmpDir = Paths.get(rootPath, "tmp");
+        Files.createDirectories(tmpDir);
+        Path tmpFile = Files.createTempFile(tmpDir, "upload-", ".part");
+
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (DigestInputStream digestStream = new DigestInputStream(inputStream, digest)) {
+            long size = Files.copy(digestStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            return new StagedFile(tmpFile, Hex.encodeHexString(digest.digest()), size);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
         }
-        return distance;
     }
 
     /**
-     * 上传原图
-     * @param file  上传文件
+     * 对临时文件去重并移动到正式目录后入库，重复文件直接丢弃
+     * @param staged    临时文件
+     * @param originalName  原始文件名
+     * @param contentType   文件类型
      * @param categoryId    分类id
      * @return  返回上传结果
      * @throws IOException  异常
      */
-    public ImageUploadDTO uploadImage(MultipartFile file, Long categoryId) throws IOException {
-        // 1. 计算文件哈希值
-        String fileHash = DigestUtils.sha256Hex(file.getInputStream());
-
-        // 2. 计算感知哈希值
-        String pHash = null;
+    public ImageUploadDTO storeStagedFile(StagedFile staged, String originalName, String contentType, Long categoryId) throws IOException {
         try {
-            pHash = calculatePHash(file.getInputStream());
-        } catch (Exception e) {
-            log.error("计算感知哈希失败: {}", e.getMessage(), e);
-        }
+            // 2. 检查重复文件
+            LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+            query.eq(Image::getHash, staged.hash());
+            Image image = imageMapper.selectOne(query);
+            // 回收站中的图片重新上传时还原
+            if (image != null && !restoreIfTrashed(image)) {
+                image = null;
+            }
 
-        // 3. 检查重复文件
-        LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
-        query.eq(Image::getHash, fileHash);
-        Image image = imageMapper.selectOne(query);
+            if (image == null) {
+                // 3. 存储原始图片
+                image = saveOriginalFile(staged, originalName, contentType, categoryId);
+                try {
+                    imageMapper.insert(image);
+                } catch (DuplicateKeyException e) {
+                    // 相同文件并发上传，另一个请求先入库：删除本次保存的文件，返回已存在的图片
+                    log.warn("并发上传了相同的文件: {}", staged.hash());
+                    deleteOriginalQuietly(image);
+                    Image existing = imageMapper.selectOne(query);
+                    if (existing == null) {
+                        throw e;
+                    }
+                    return new ImageUploadDTO(existing.getId(), existing.getOriginalName());
+                }
 
-        if (image == null) {
-            // 4. 存储原始图片
-            image = saveOriginalFile(file, categoryId, fileHash, pHash);
-            imageMapper.insert(image);
-        }
+                // 4. 感知哈希等派生数据交给后台流水线处理
+                imageProcessingService.submit(image.getId());
+            }
 
-        return new ImageUploadDTO(image.getId(),image.getOriginalName());
+            return new ImageUploadDTO(image.getId(), image.getOriginalName());
+        } finally {
+            // 重复文件或处理失败时清理临时文件，已移动的文件不受影响
+            Files.deleteIfExists(staged.path());
+        }
     }
 
     // 移动图片到新分类
@@ -213,85 +268,217 @@ public class ImageService {
     }
 
     /**
-     * 删除图片及关联资源
+     * 删除图片：移入回收站
      * @param imageId   原图id
+     */
+    @Transactional
+    public void deleteImage(Long imageId) {
+        deleteImages(List.of(imageId));
+    }
+
+    /**
+     * 删除原图文件，内容寻址存储下只在内容不再被引用时删除内容文件
+     * @param image 图片
      * @throws IOException  异常
      */
+    void deleteOriginalFile(Image image) throws IOException {
+        fileReaperService.deleteOriginal(image);
+    }
+
+    private void deleteOriginalQuietly(Image image) {
+        try {
+            deleteOriginalFile(image);
+        } catch (IOException e) {
+            log.error("删除文件失败: {}", image.getStoragePath(), e);
+        }
+    }
+
+    /**
+     * 批量删除图片：只记录删除时间，保留期内可以还原，过期后由 TrashService 彻底删除
+     * 回收站中的图片不再出现在分类、最近上传、随机图和相似图片中，也不能再按id访问
+     * @param imageIds   图片id列表
+     */
     @Transactional
-    public void deleteImage(Long imageId) throws IOException {
-        Image image = imageMapper.selectById(imageId);
-        if (image == null) return;
-
-        // 删除文件
-        Files.deleteIfExists(Paths.get(rootPath, image.getStoragePath()));
-
-        // 删除缩略图
-        LambdaQueryWrapper<Thumbnail> query = new LambdaQueryWrapper<>();
-        query.eq(Thumbnail::getOriginalId, imageId);
-        List<Thumbnail> thumbnails = thumbnailMapper.selectList(query);
-        thumbnails.forEach(thumb -> {
-            try {
-                Files.deleteIfExists(Paths.get(rootPath, thumb.getStoragePath()));
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    public void deleteImages(List<Long> imageIds) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Image> trashed = new ArrayList<>();
+        for (List<Long> ids : batches(imageIds)) {
+            List<Image> batch = imageMapper.selectFilesByIds(ids).stream()
+                    .filter(image -> image.getDeletedAt() == null)
+                    .toList();
+            if (!batch.isEmpty()) {
+                imageMapper.trashByIds(batch.stream().map(Image::getId).toList(), now);
+                trashed.addAll(batch);
+            }
+        }
+        // 内存中的索引在事务提交后移除，回滚时保持不变
+        afterCommit(() -> {
+            for (Image image : trashed) {
+                similarityIndexService.remove(image.getId());
+                thumbnailManifestService.remove(image.getId());
             }
-            imageMapper.deleteById(thumb.getId());
         });
+    }
+
+    /**
+     * 从回收站还原图片
+     * @param imageIds  图片id列表
+     * @return  还原的数量
+     */
+    @Transactional
+    public int restoreImages(List<Long> imageIds) {
+        int restored = 0;
+        List<Image> images = new ArrayList<>();
+        for (List<Long> ids : batches(imageIds)) {
+            int count = imageMapper.restoreByIds(ids);
+            if (count == 0) {
+                continue;
+            }
+            for (Image image : imageMapper.selectFilesByIds(ids)) {
+                if (image.getDeletedAt() == null) {
+                    images.add(image);
+                }
+            }
+            restored += count;
+        }
+        afterCommit(() -> images.forEach(image -> similarityIndexService.add(image.getId(), image.getPHash())));
+        return restored;
+    }
+
+    /**
+     * 重新上传回收站中的图片时还原该图片
+     * @param image 按哈希查到的图片
+     * @return  图片是否可用，false 表示图片已被彻底删除，需要重新保存
+     */
+    boolean restoreIfTrashed(Image image) {
+        if (image.getDeletedAt() == null) {
+            return true;
+        }
+        // 彻底删除正在进行时等待其提交，之后没有可还原的记录
+        if (imageMapper.restoreByIds(List.of(image.getId())) == 0) {
+            Image current = imageMapper.selectById(image.getId());
+            if (current == null || current.getDeletedAt() != null) {
+                return false;
+            }
+        }
+        image.setDeletedAt(null);
+        afterCommit(() -> similarityIndexService.add(image.getId(), image.getPHash()));
+        return true;
+    }
+
+    /**
+     * 事务提交后执行，没有事务时立即执行
+     * @param action    操作
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
 
-        // 删除主记录
-        imageMapper.deleteById(imageId);
+    /**
+     * 查询回收站中的图片，按删除时间倒序
+     * @param page  当前页
+     * @param size  每页图片数量
+     * @return Page<ImageDTO>
+     */
+    public IPage<ImageDTO> queryTrash(int page, int size) {
+        LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+        query.isNotNull(Image::getDeletedAt).orderByDesc(Image::getDeletedAt);
+        return imageMapper.selectPage(new Page<>(page, size), query).convert(this::convertToDto);
     }
 
     /**
-     * 批量删除图片及关联资源
+     * 彻底删除回收站中的图片及关联资源，不在回收站中的图片忽略
+     * 按批用 IN 查询收集原图和略缩图路径后批量删除记录，事务中不做文件操作；
+     * 文件在事务提交后由 FileReaperService 异步删除
      * @param imageIds   图片id列表
+     * @return  删除的数量
      */
     @Transactional
-    public void deleteImages(List<Long> imageIds) {
-        if (imageIds == null || imageIds.isEmpty()) {
-            return;
+    public int purgeImages(List<Long> imageIds) {
+        List<Image> images = new ArrayList<>();
+        List<String> thumbnailPaths = new ArrayList<>();
+        for (List<Long> ids : batches(imageIds)) {
+            // 锁定记录，并发的还原等待删除提交
+            List<Image> batch = imageMapper.selectTrashedForUpdate(ids);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            List<Long> existingIds = batch.stream().map(Image::getId).toList();
+            thumbnailMapper.selectByOriginalIds(existingIds)
+                    .forEach(thumbnail -> thumbnailPaths.add(thumbnail.getStoragePath()));
+            thumbnailMapper.deleteByOriginalIds(existingIds);
+            imageMapper.deleteBatchIds(existingIds);
+            images.addAll(batch);
+        }
+        if (!images.isEmpty()) {
+            fileReaperService.submit(images, thumbnailPaths);
         }
+        return images.size();
+    }
 
-        for (Long imageId : imageIds) {
-            try {
-                deleteImage(imageId);
-            } catch (IOException e) {
-                log.error("删除失败的图片id: {}", imageId, e);
-                // Decide how to handle partial failures. For now, we log and continue.
-            }
+    /**
+     * 去重后按 DELETE_BATCH_SIZE 分批
+     * @param imageIds  图片id列表
+     * @return  分批后的id
+     */
+    private static List<List<Long>> batches(List<Long> imageIds) {
+        if (imageIds == null || imageIds.isEmpty()) {
+            return List.of();
         }
+        List<Long> distinctIds = imageIds.stream().filter(Objects::nonNull).distinct().toList();
+        List<List<Long>> batches = new ArrayList<>();
+        for (int i = 0; i < distinctIds.size(); i += DELETE_BATCH_SIZE) {
+            batches.add(distinctIds.subList(i, Math.min(i + DELETE_BATCH_SIZE, distinctIds.size())));
+        }
+        return batches;
     }
 
     /**
-     * 封装图片数据
-     * @param file  上传文件
+     * 将临时文件保存到存储后端的日期目录并封装图片数据；启用内容寻址存储时日期路径为内容文件的硬链接
+     * @param staged    临时文件
+     * @param originalName  原始文件名
+     * @param contentType   文件类型
      * @param categoryId    分类id
-     * @param hash  文件hash
      * @return  返回封装结果
      * @throws IOException  异常
      */
-    private Image saveOriginalFile(MultipartFile file, Long categoryId, String hash, String pHash) throws IOException {
+    Image saveOriginalFile(StagedFile staged, String originalName, String contentType, Long categoryId) throws IOException {
         String datePath = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-        String fileName = UUID.randomUUID() + "." + file.getOriginalFilename();
+        String fileName = UUID.randomUUID() + "." + originalName;
         Path storagePath = Paths.get(rootPath, "original", datePath, fileName);
-
-        Files.createDirectories(storagePath.getParent());
-        file.transferTo(storagePath);
+        String relativePath = storagePath.toString().replace(rootPath, "");
+
+        Long pHash = null;
+        if (blobStoreService.isEnabled()) {
+            blobStoreService.store(staged.path(), staged.hash(), storagePath);
+        } else {
+            // 远程存储在上传前从临时文件计算感知哈希，避免后台处理重新下载
+            if (!storageBackend.isLocal()) {
+                pHash = imageProcessingService.computePHash(staged.path());
+            }
+            storageBackend.put(ThumbnailManifestService.toStaticPath(relativePath), staged.path());
+        }
 
         Image image = new Image();
-        image.setOriginalName(file.getOriginalFilename());
-        image.setStoragePath(storagePath.toString().replace(rootPath, ""));
-        image.setFileType(file.getContentType());
-        image.setFileSize(file.getSize());
+        image.setOriginalName(originalName);
+        image.setStoragePath(relativePath);
+        image.setFileType(contentType);
+        image.setFileSize(staged.size());
         image.setCategoryId(categoryId);
-        image.setHash(hash);
+        image.setHash(staged.hash());
         image.setPHash(pHash);
         return image;
     }
 
-
-    
-
     private ImageDTO convertToDto(Image image) {
         ImageDTO dto = new ImageDTO();
         dto.setId(image.getId());
@@ -302,6 +489,7 @@ public class ImageService {
         dto.setHash(image.getHash());
         dto.setPHash(image.getPHash());
         dto.setCreateTime(image.getCreateTime());
+        dto.setDeletedAt(image.getDeletedAt());
 
         // Build the URL, ensuring no leading slashes from the stored path
         String cleanPath = image.getStoragePath().startsWith(File.separator)
@@ -321,7 +509,7 @@ public class ImageService {
     public IPage<ImageDTO> queryImageByCategoryId(Long categoryId, int page, int size) {
         Page<Image> imagePage = new Page<>(page, size);
         LambdaQueryWrapper<Image> imageQuery = new LambdaQueryWrapper<>();
-        imageQuery.eq(Image::getCategoryId, categoryId);
+        imageQuery.eq(Image::getCategoryId, categoryId).isNull(Image::getDeletedAt);
         Page<Image> resultPage = imageMapper.selectPage(imagePage, imageQuery);
 
         // 转换 Page<Image> to Page<ImageDTO>
@@ -392,7 +580,7 @@ public class ImageService {
     @Transactional
     public int syncImagesFromOriginalFolder() throws IOException {
         Path originalFolderPath = Paths.get(rootPath, "original");
-        if (!Files.exists(originalFolderPath)) {
+        if (storageBackend.isLocal() && !Files.exists(originalFolderPath)) {
             Files.createDirectories(originalFolderPath);
             log.info("创建 original 文件夹: {}", originalFolderPath);
             return 0;
@@ -409,66 +597,75 @@ public class ImageService {
                 .map(Image::getStoragePath)
                 .collect(Collectors.toSet());
 
-        // 过滤出所有hash
-        Set<String> existingImageHashs = images.stream()
-                .map(Image::getHash)
-                .collect(Collectors.toSet());
+        // 过滤出所有hash及对应路径
+        Map<String, String> existingImageHashs = images.stream()
+                .filter(image -> image.getHash() != null)
+                .collect(Collectors.toMap(Image::getHash, Image::getStoragePath, (a, b) -> a));
 
         int syncedCount = 0;
-        // 遍历 original 文件夹下的所有图片文件
-        try (var stream = Files.walk(originalFolderPath)) {
-            List<Path> imageFiles = stream
-                    .filter(Files::isRegularFile)
-                    .filter(p -> {
-                        String fileName = p.getFileName().toString().toLowerCase();
-                        return fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") ||
-                               fileName.endsWith(".png") || fileName.endsWith(".gif");
-                    })
-                    .toList();
-
-            for (Path filePath : imageFiles) {
-                String relativePath = File.separator + Paths.get(rootPath).relativize(filePath);
-
-                if (!existingImagePaths.contains(relativePath)) {
-                    // 新图片，同步到数据库
-                    Image image = new Image();
-                    image.setOriginalName(filePath.getFileName().toString());
-                    image.setStoragePath(relativePath);
-                    image.setFileSize(Files.size(filePath));
-                    image.setCategoryId(uncategorizedCategory.getId());
-                    image.setCreateTime(LocalDateTime.now());
-
-                    // 计算文件哈希值
-                    try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-                        image.setHash(DigestUtils.sha256Hex(fis));
-
-                        // 如果档期按图片已存在，不保存
-                        if(existingImageHashs.contains(image.getHash())){
-                            continue;
-                        }
-                        // 防止后续有重复文件
-                        existingImageHashs.add(image.getHash());
-                    }
+        // 遍历存储后端 original/ 下的所有图片文件
+        List<StorageBackend.StorageObject> imageFiles = new ArrayList<>();
+        storageBackend.list("original/", object -> {
+            String fileName = object.key().toLowerCase();
+            if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") ||
+                    fileName.endsWith(".png") || fileName.endsWith(".gif")) {
+                imageFiles.add(object);
+            }
+        });
 
-                    // 计算感知哈希值
-                    try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-                        image.setPHash(calculatePHash(fis));
-                    } catch (Exception e) {
-                        log.error("同步图片时计算感知哈希失败: {}", filePath, e);
-                    }
+        for (StorageBackend.StorageObject object : imageFiles) {
+            String relativePath = File.separator + object.key().replace("/", File.separator);
+            String fileName = object.key().substring(object.key().lastIndexOf('/') + 1);
+
+            if (!existingImagePaths.contains(relativePath)) {
+                // 新图片，同步到数据库
+                Image image = new Image();
+                image.setOriginalName(fileName);
+                image.setStoragePath(relativePath);
+                image.setFileSize(object.size());
+                image.setCategoryId(uncategorizedCategory.getId());
+                image.setCreateTime(LocalDateTime.now());
+
+                // 计算文件哈希值
+                try (InputStream in = storageBackend.get(object.key())) {
+                    image.setHash(DigestUtils.sha256Hex(in));
+                }
 
-                    // 获取文件类型
-                    String fileExtension = "";
-                    int dotIndex = filePath.getFileName().toString().lastIndexOf('.');
-                    if (dotIndex > 0 && dotIndex < filePath.getFileName().toString().length() - 1) {
-                        fileExtension = filePath.getFileName().toString().substring(dotIndex + 1).toLowerCase();
+                // 如果档期按图片已存在，不保存
+                String existingPath = existingImageHashs.get(image.getHash());
+                if(existingPath != null){
+                    // 内容寻址存储下重复文件替换为硬链接，只保留一份内容
+                    if (blobStoreService.isEnabled()) {
+                        try {
+                            blobStoreService.adopt(Paths.get(rootPath, existingPath), image.getHash());
+                            if (blobStoreService.adopt(Paths.get(rootPath, relativePath), image.getHash())) {
+                                log.info("重复文件已替换为硬链接: {}", relativePath);
+                            }
+                        } catch (IOException e) {
+                            log.warn("重复文件去重失败: {}", relativePath, e);
+                        }
                     }
-                    image.setFileType(MIME_TYPES.getOrDefault(fileExtension, "application/octet-stream"));
+                    continue;
+                }
+                // 防止后续有重复文件
+                existingImageHashs.put(image.getHash(), relativePath);
+                // 容量层中的文件不在内容寻址存储中
+                if (blobStoreService.isEnabled() && Files.exists(Paths.get(rootPath, relativePath))) {
+                    blobStoreService.adopt(Paths.get(rootPath, relativePath), image.getHash());
+                }
 
-                    imageMapper.insert(image);
-                    syncedCount++;
-                    log.info("同步新图片: {}", relativePath);
+                // 获取文件类型
+                String fileExtension = "";
+                int dotIndex = fileName.lastIndexOf('.');
+                if (dotIndex > 0 && dotIndex < fileName.length() - 1) {
+                    fileExtension = fileName.substring(dotIndex + 1).toLowerCase();
                 }
+                image.setFileType(MIME_TYPES.getOrDefault(fileExtension, "application/octet-stream"));
+
+                imageMapper.insert(image);
+                imageProcessingService.submit(image.getId());
+                syncedCount++;
+                log.info("同步新图片: {}", relativePath);
             }
         }
         return syncedCount;
@@ -500,16 +697,63 @@ public class ImageService {
      */
     public List<ImageDTO> findSimilarImages(Long imageId, int threshold) {
         Image targetImage = imageMapper.selectById(imageId);
-        if (targetImage == null || StringUtil.isEmpty(targetImage.getPHash())) {
+        if (targetImage == null || targetImage.getDeletedAt() != null || targetImage.getPHash() == null) {
             return List.of(); // 或者抛出异常，取决于业务需求
         }
 
-        String targetPHash = targetImage.getPHash();
-        List<Image> allImages = imageMapper.selectList(null); // 获取所有图片
+        // 从相似度索引中查出匹配的id (按距离升序)，再只加载这些图片
+        List<Long> similarIds = similarityIndexService.query(targetImage.getPHash(), threshold, imageId);
+        return listByIdsInOrder(similarIds);
+    }
+
+    /**
+     * 以图搜图：按上传图片的内容查找库中相似的图片，不保存任何记录
+     * 上传内容先写入临时文件，与库中图片使用相同的解码方式 (OpenCV，按 EXIF 方向旋转) 计算感知哈希
+     * @param inputStream   图片输入流
+     * @param threshold 汉明距离阈值
+     * @return  相似图片列表，按距离升序
+     * @throws IOException  图片无法解码
+     */
+    public List<ImageDTO> findSimilarImages(InputStream inputStream, int threshold) throws IOException {
+        Path tmpDir = Paths.get(rootPath, "tmp");
+        Files.createDirectories(tmpDir);
+        Path tmpFile = Files.createTempFile(tmpDir, "similar-", ".part");
+        long pHash;
+        try {
+            Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            pHash = PHashUtil.calculatePHash(tmpFile);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+        return findSimilarImagesByPHash(pHash, threshold);
+    }
 
-        return allImages.stream()
-                .filter(img -> !img.getId().equals(imageId) && !StringUtil.isEmpty(img.getPHash())) // 排除自身和没有pHash的图片
-                .filter(img -> hammingDistance(targetPHash, img.getPHash()) <= threshold)
+    /**
+     * 按感知哈希查找库中相似的图片
+     * @param pHash 感知哈希
+     * @param threshold 汉明距离阈值
+     * @return  相似图片列表，按距离升序
+     */
+    public List<ImageDTO> findSimilarImagesByPHash(long pHash, int threshold) {
+        return listByIdsInOrder(similarityIndexService.query(pHash, threshold, null));
+    }
+
+    /**
+     * 按id批量加载图片并保持传入的顺序
+     * @param imageIds  图片id列表
+     * @return  图片列表
+     */
+    public List<ImageDTO> listByIdsInOrder(List<Long> imageIds) {
+        if (imageIds.isEmpty()) {
+            return List.of();
+        }
+        LambdaQueryWrapper<Image> query = new LambdaQueryWrapper<>();
+        query.in(Image::getId, imageIds).isNull(Image::getDeletedAt);
+        Map<Long, Image> images = imageMapper.selectList(query).stream()
+                .collect(Collectors.toMap(Image::getId, Function.identity()));
+        return imageIds.stream()
+                .map(images::get)
+                .filter(Objects::nonNull)
                 .map(this::convertToDto)
                 .collect(Collectors.toList());
     }
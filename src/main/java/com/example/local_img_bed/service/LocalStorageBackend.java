@@ -0,0 +1,196 @@
+package com.example.local_img_bed.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * 本地文件系统存储，文件位于 image.storage.root-path 下
+ * 启用冷热分层时原图可能位于容量层 (image.storage.tier.cold-root-path) 的相同相对路径，读取时先查高速层
+ */
+@Service
+@ConditionalOnProperty(name = "image.storage.backend", havingValue = "local", matchIfMissing = true)
+public class LocalStorageBackend implements StorageBackend {
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.storage.tier.enabled:false}")
+    private boolean tiered;
+
+    @Value("${image.storage.tier.cold-root-path:}")
+    private String coldRootPath;
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    /**
+     * 与存储目录在同一文件系统的文件直接原子移动，不复制内容；新文件总是写入高速层
+     */
+    @Override
+    public void put(String key, Path source) throws IOException {
+        Path target = Paths.get(rootPath, key);
+        Files.createDirectories(target.getParent());
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(localFile(key));
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(localFile(key), StandardOpenOption.READ);
+        channel.position(offset);
+        return new LimitedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(localFile(key), BasicFileAttributes.class);
+            return attributes.isRegularFile()
+                    ? new StorageObject(key, attributes.size(), attributes.lastModifiedTime().toInstant())
+                    : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 同时删除两个层级中的文件
+     */
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(Paths.get(rootPath, key));
+        if (tiered) {
+            Files.deleteIfExists(Paths.get(coldRootPath, key));
+        }
+    }
+
+    /**
+     * 迁移过程中两个层级可能同时存在同一文件，只返回一次
+     */
+    @Override
+    public void list(String prefix, Consumer<StorageObject> consumer) throws IOException {
+        if (!tiered) {
+            list(Paths.get(rootPath), prefix, consumer);
+            return;
+        }
+        Set<String> hotKeys = new HashSet<>();
+        list(Paths.get(rootPath), prefix, object -> {
+            hotKeys.add(object.key());
+            consumer.accept(object);
+        });
+        list(Paths.get(coldRootPath), prefix, object -> {
+            if (!hotKeys.contains(object.key())) {
+                consumer.accept(object);
+            }
+        });
+    }
+
+    private static void list(Path root, String prefix, Consumer<StorageObject> consumer) throws IOException {
+        Path directory = root.resolve(prefix);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (path.getFileName().toString().startsWith(".")) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    String key = root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+                    consumer.accept(new StorageObject(key, attributes.size(), attributes.lastModifiedTime().toInstant()));
+                }
+            }
+        }
+    }
+
+    /**
+     * 高速层不存在时返回容量层中的文件；迁移时先复制再删除，任一时刻至少一个层级中存在文件
+     */
+    @Override
+    public Path localFile(String key) {
+        Path hot = Paths.get(rootPath, key);
+        if (!tiered || Files.exists(hot)) {
+            return hot;
+        }
+        Path cold = Paths.get(coldRootPath, key);
+        return Files.exists(cold) ? cold : hot;
+    }
+
+    /**
+     * 只读取前 limit 个字节
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
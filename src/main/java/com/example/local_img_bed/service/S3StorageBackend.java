@@ -0,0 +1,434 @@
+package com.example.local_img_bed.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * S3 兼容对象存储 (AWS S3、MinIO 等)
+ * 大于分片大小的文件使用分片上传，各分片并行上传；下载到本地缓存时同样按分片并行读取区间。
+ * 本地缓存 (image.storage.root-path 下与 key 相同的路径) 可随时删除，总大小按 cache-max-size 以最近最少使用淘汰；
+ * 上传完成的文件直接移入本地缓存，后台生成略缩图时不必重新下载
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "image.storage.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+    private static final int NOT_FOUND = 404;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.storage.s3.endpoint:}")
+    private String endpoint;
+
+    @Value("${image.storage.s3.region:us-east-1}")
+    private String region;
+
+    @Value("${image.storage.s3.bucket}")
+    private String bucket;
+
+    @Value("${image.storage.s3.access-key:}")
+    private String accessKey;
+
+    @Value("${image.storage.s3.secret-key:}")
+    private String secretKey;
+
+    /**
+     * 使用路径形式访问存储桶 (MinIO 等自建服务通常需要开启)
+     */
+    @Value("${image.storage.s3.path-style:true}")
+    private boolean pathStyle;
+
+    /**
+     * 分片大小，S3 要求除最后一片外不小于 5MB
+     */
+    @Value("${image.storage.s3.part-size:8388608}")
+    private long partSize;
+
+    @Value("${image.storage.s3.transfer-threads:4}")
+    private int transferThreads;
+
+    /**
+     * 本地缓存总大小上限 (字节)
+     */
+    @Value("${image.storage.s3.cache-max-size:10737418240}")
+    private long cacheMaxSize;
+
+    private S3Client s3;
+    private ExecutorService transferExecutor;
+
+    // 本地缓存的 key -> 文件大小，按访问顺序排列
+    private final LinkedHashMap<String, Long> cacheEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize;
+
+    @PostConstruct
+    public void init() {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(region))
+                .forcePathStyle(pathStyle)
+                .credentialsProvider(accessKey.isEmpty()
+                        ? DefaultCredentialsProvider.create()
+                        : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        if (!endpoint.isEmpty()) {
+            builder.endpointOverride(URI.create(endpoint));
+        }
+        s3 = builder.build();
+        transferExecutor = Executors.newFixedThreadPool(transferThreads, new CustomizableThreadFactory("s3-transfer-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transferExecutor.shutdownNow();
+        s3.close();
+    }
+
+    /**
+     * 启动后在后台扫描本地缓存，按修改时间近似恢复访问顺序
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCache() {
+        Path cacheRoot = Paths.get(rootPath, "original");
+        if (!Files.isDirectory(cacheRoot)) {
+            return;
+        }
+        List<Object[]> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(cacheRoot)) {
+            paths.forEach(path -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && !path.getFileName().toString().startsWith(".")) {
+                        String key = ThumbnailManifestService.toStaticPath(path.toString().replace(rootPath, ""));
+                        files.add(new Object[]{key, attributes.lastModifiedTime().toMillis(), attributes.size()});
+                    }
+                } catch (IOException e) {
+                    log.warn("读取缓存文件失败: {}", path, e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.error("扫描对象存储本地缓存失败", e);
+            return;
+        }
+        files.sort(Comparator.comparingLong(file -> (Long) file[1]));
+        synchronized (cacheEntries) {
+            for (Object[] file : files) {
+                // 扫描期间已访问的文件保持较新的位置
+                if (cacheEntries.putIfAbsent((String) file[0], (Long) file[2]) == null) {
+                    cacheSize += (Long) file[2];
+                }
+            }
+        }
+        evictCache(null);
+        log.info("对象存储本地缓存加载完成，共 {} 个文件，{} 字节", files.size(), cacheSize);
+    }
+
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
+    @Override
+    public void put(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        try {
+            if (size <= partSize) {
+                s3.putObject(b -> b.bucket(bucket).key(key), RequestBody.fromFile(source));
+            } else {
+                putMultipart(key, source, size);
+            }
+        } catch (S3Exception e) {
+            throw new IOException("上传对象失败: " + key, e);
+        }
+        // 上传成功后移入本地缓存，移动失败 (不在同一文件系统) 时由调用方删除
+        Path cached = Paths.get(rootPath, key);
+        try {
+            Files.createDirectories(cached.getParent());
+            Files.move(source, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            cache(key, size);
+        } catch (IOException e) {
+            log.debug("上传的文件未能移入本地缓存: {}", key, e);
+        }
+    }
+
+    /**
+     * 分片并行上传，任一分片失败时取消整个上传
+     * @param key   key
+     * @param source    本地文件
+     * @param size  文件大小
+     * @throws IOException  异常
+     */
+    private void putMultipart(String key, Path source, long size) throws IOException {
+        String uploadId = s3.createMultipartUpload(b -> b.bucket(bucket).key(key)).uploadId();
+        try {
+            List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partSize) {
+                int partNumber = parts.size() + 1;
+                long start = offset;
+                long length = Math.min(partSize, size - offset);
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    // 每次 (含重试) 重新打开文件并定位到分片起始位置
+                    RequestBody body = RequestBody.fromContentProvider(() -> openAt(source, start), length,
+                            "application/octet-stream");
+                    String etag = s3.uploadPart(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                            .partNumber(partNumber).contentLength(length), body).eTag();
+                    return CompletedPart.builder().partNumber(partNumber).eTag(etag).build();
+                }, transferExecutor));
+            }
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.join());
+            }
+            s3.completeMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build()));
+        } catch (CompletionException e) {
+            s3.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+            throw unwrap(e, "分片上传失败: " + key);
+        } catch (S3Exception e) {
+            s3.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+            throw new IOException("分片上传失败: " + key, e);
+        }
+    }
+
+    /**
+     * 取出并行任务中的 IO 异常
+     */
+    private static IOException unwrap(CompletionException e, String message) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException unchecked) {
+            return unchecked.getCause();
+        }
+        return cause instanceof IOException ioException ? ioException : new IOException(message, cause);
+    }
+
+    private static InputStream openAt(Path source, long position) {
+        try {
+            FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+            channel.position(position);
+            return Channels.newInputStream(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        return getObject(GetObjectRequest.builder().bucket(bucket).key(key)
+                .range("bytes=" + offset + "-" + (offset + length - 1)).build());
+    }
+
+    private InputStream getObject(GetObjectRequest request) throws IOException {
+        try {
+            return s3.getObject(request);
+        } catch (S3Exception e) {
+            if (e.statusCode() == NOT_FOUND) {
+                throw new NoSuchFileException(request.key());
+            }
+            throw new IOException("读取对象失败: " + request.key(), e);
+        }
+    }
+
+    @Override
+    public StorageObject stat(String key) throws IOException {
+        try {
+            HeadObjectResponse head = s3.headObject(b -> b.bucket(bucket).key(key));
+            return new StorageObject(key, head.contentLength(), head.lastModified());
+        } catch (S3Exception e) {
+            if (e.statusCode() == NOT_FOUND) {
+                return null;
+            }
+            throw new IOException("查询对象失败: " + key, e);
+        }
+    }
+
+    /**
+     * 删除对象及本地缓存
+     */
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3.deleteObject(b -> b.bucket(bucket).key(key));
+        } catch (S3Exception e) {
+            throw new IOException("删除对象失败: " + key, e);
+        }
+        synchronized (cacheEntries) {
+            Long size = cacheEntries.remove(key);
+            if (size != null) {
+                cacheSize -= size;
+            }
+        }
+        Files.deleteIfExists(Paths.get(rootPath, key));
+    }
+
+    @Override
+    public void list(String prefix, Consumer<StorageObject> consumer) throws IOException {
+        try {
+            for (S3Object object : s3.listObjectsV2Paginator(b -> b.bucket(bucket).prefix(prefix)).contents()) {
+                String name = object.key().substring(object.key().lastIndexOf('/') + 1);
+                if (!name.startsWith(".")) {
+                    consumer.accept(new StorageObject(object.key(), object.size(), object.lastModified()));
+                }
+            }
+        } catch (S3Exception e) {
+            throw new IOException("列出对象失败: " + prefix, e);
+        }
+    }
+
+    /**
+     * 未缓存时按分片并行下载到临时文件，完成后原子移动到缓存路径
+     */
+    @Override
+    public Path localFile(String key) throws IOException {
+        Path cached = Paths.get(rootPath, key);
+        synchronized (cacheEntries) {
+            if (cacheEntries.get(key) != null && Files.exists(cached)) {
+                return cached;
+            }
+        }
+        // 不在清单中的文件 (启动扫描尚未完成或其他节点写入的) 补记
+        if (Files.exists(cached)) {
+            cache(key, Files.size(cached));
+            return cached;
+        }
+        StorageObject object = stat(key);
+        if (object == null) {
+            throw new NoSuchFileException(key);
+        }
+        Files.createDirectories(cached.getParent());
+        Path tmp = cached.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + cached.getFileName());
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                // 预先扩展到完整大小，transferFrom 不会写入超出当前文件大小的位置
+                if (object.size() > 0) {
+                    channel.write(ByteBuffer.allocate(1), object.size() - 1);
+                }
+                List<CompletableFuture<Void>> parts = new ArrayList<>();
+                for (long offset = 0; offset < object.size(); offset += partSize) {
+                    long start = offset;
+                    long length = Math.min(partSize, object.size() - offset);
+                    parts.add(CompletableFuture.runAsync(() -> download(key, start, length, channel), transferExecutor));
+                }
+                CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                throw unwrap(e, "下载对象失败: " + key);
+            }
+            Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        cache(key, object.size());
+        return cached;
+    }
+
+    /**
+     * 记录本地缓存文件并按容量淘汰，刚记录的文件不会被淘汰
+     * @param key   key
+     * @param size  文件大小
+     */
+    private void cache(String key, long size) {
+        synchronized (cacheEntries) {
+            Long previous = cacheEntries.put(key, size);
+            cacheSize += size - (previous == null ? 0 : previous);
+        }
+        evictCache(key);
+    }
+
+    /**
+     * 删除最久未访问的本地缓存直到总大小不超过上限，对象存储中的原文件不受影响
+     * @param keep  不淘汰的 key，可为 null
+     */
+    private void evictCache(String keep) {
+        List<String> victims = new ArrayList<>();
+        synchronized (cacheEntries) {
+            Iterator<Map.Entry<String, Long>> iterator = cacheEntries.entrySet().iterator();
+            while (cacheSize > cacheMaxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().equals(keep)) {
+                    continue;
+                }
+                cacheSize -= entry.getValue();
+                victims.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        for (String victim : victims) {
+            try {
+                Files.deleteIfExists(Paths.get(rootPath, victim));
+            } catch (IOException e) {
+                log.warn("删除对象存储本地缓存失败: {}", victim, e);
+            }
+        }
+    }
+
+    /**
+     * 下载一个区间写入文件的对应位置
+     */
+    private void download(String key, long offset, long length, FileChannel channel) {
+        try (ReadableByteChannel in = Channels.newChannel(get(key, offset, length))) {
+            long written = 0;
+            while (written < length) {
+                long n = channel.transferFrom(in, offset + written, length - written);
+                if (n <= 0) {
+                    throw new IOException("对象内容不完整: " + key);
+                }
+                written += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import com.example.local_img_bed.utils.PHashUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 常驻内存的感知哈希相似度索引 (多索引哈希)
+ * 63 位 pHash 按 16 位切成 4 段，每段以段值为桶。两个哈希距离不超过 t 时，
+ * 至少有一段的距离不超过 t/4 (抽屉原理)，因此只需枚举各段半径 t/4 内的桶，再逐个校验完整距离
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class SimilarityIndexService {
+    static final int BANDS = 4;
+    static final int BAND_BITS = 16;
+    static final int BAND_BUCKETS = 1 << BAND_BITS;
+    private static final int BAND_MASK = BAND_BUCKETS - 1;
+    // 段半径超过该值时枚举的桶数接近全部桶，改为全量扫描
+    private static final int MAX_ENUMERATE_RADIUS = 5;
+
+    private final ImageMapper imageMapper;
+
+    // buckets[段][段值] 中交替存放 id 和 pHash
+    private final long[][][] buckets = new long[BANDS][BAND_BUCKETS][];
+    private final int[][] bucketSizes = new int[BANDS][BAND_BUCKETS];
+    // 图片id -> 索引中的 pHash，更新和移除时据此找到旧的桶
+    private final Map<Long, Long> hashes = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean ready;
+    private int size;
+
+    /**
+     * 启动后在后台从数据库流式加载全部感知哈希
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            for (int band = 0; band < BANDS; band++) {
+                Arrays.fill(buckets[band], null);
+                Arrays.fill(bucketSizes[band], 0);
+            }
+            hashes.clear();
+            size = 0;
+            imageMapper.scanPHashes(context -> {
+                Image image = context.getResultObject();
+                put(image.getId(), image.getPHash());
+            });
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("相似度索引加载完成，共 {} 张图片，耗时 {} 毫秒", size, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 加入或更新图片的感知哈希，已有旧哈希时先移除旧哈希所在的桶
+     * @param imageId   图片id
+     * @param pHash 感知哈希
+     */
+    public void add(Long imageId, Long pHash) {
+        if (imageId == null || pHash == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            put(imageId, pHash);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除图片
+     * @param imageId   图片id
+     */
+    public void remove(Long imageId) {
+        if (imageId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Long pHash = hashes.remove(imageId);
+            if (pHash != null) {
+                delete(imageId, pHash);
+                size = hashes.size();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询汉明距离不超过阈值的图片，按距离升序
+     * @param pHash 目标感知哈希
+     * @param threshold 汉明距离阈值
+     * @param excludeId 需要排除的图片id (通常是目标图片自身)，可为空
+     * @return  图片id列表
+     */
+    public List<Long> query(long pHash, int threshold, Long excludeId) {
+        Map<Long, Integer> matches = new HashMap<>();
+        if (!ready) {
+            // 索引尚未加载完成，退回到数据库流式扫描
+            imageMapper.scanPHashes(context -> {
+                Image image = context.getResultObject();
+                int distance = PHashUtil.hammingDistance(pHash, image.getPHash());
+                if (distance <= threshold) {
+                    matches.put(image.getId(), distance);
+                }
+            });
+        } else {
+            lock.readLock().lock();
+            try {
+                int radius = threshold / BANDS;
+                if (radius > MAX_ENUMERATE_RADIUS) {
+                    for (int bucket = 0; bucket < BAND_BUCKETS; bucket++) {
+                        collect(0, bucket, pHash, threshold, matches);
+                    }
+                } else {
+                    for (int band = 0; band < BANDS; band++) {
+                        int value = band(pHash, band);
+                        for (int bucket : neighbours(value, radius)) {
+                            collect(band, bucket, pHash, threshold, matches);
+                        }
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        if (excludeId != null) {
+            matches.remove(excludeId);
+        }
+        List<Long> ids = new ArrayList<>(matches.keySet());
+        ids.sort(Comparator.comparing(matches::get));
+        return ids;
+    }
+
+    /**
+     * 导出索引中全部 (id, pHash)，索引未就绪时直接从数据库读取
+     * @return  [0] 为 id 数组，[1] 为对应的 pHash 数组
+     */
+    public long[][] snapshot() {
+        if (!ready) {
+            List<long[]> rows = new ArrayList<>();
+            imageMapper.scanPHashes(context -> {
+                Image image = context.getResultObject();
+                rows.add(new long[]{image.getId(), image.getPHash()});
+            });
+            long[][] result = new long[2][rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                result[0][i] = rows.get(i)[0];
+                result[1][i] = rows.get(i)[1];
+            }
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            // 第 0 段的桶恰好包含每张图片一次
+            long[][] result = new long[2][size];
+            int n = 0;
+            for (int bucket = 0; bucket < BAND_BUCKETS; bucket++) {
+                long[] entries = buckets[0][bucket];
+                for (int i = 0; i < bucketSizes[0][bucket] * 2; i += 2) {
+                    result[0][n] = entries[i];
+                    result[1][n] = entries[i + 1];
+                    n++;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前索引中的图片数量
+     * @return  数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 取出第 band 段的段值
+     * @param pHash 感知哈希
+     * @param band  段序号
+     * @return  段值
+     */
+    static int band(long pHash, int band) {
+        return (int) (pHash >>> (band * BAND_BITS)) & BAND_MASK;
+    }
+
+    /**
+     * 枚举与 value 汉明距离不超过 radius 的全部 16 位值
+     * @param value 段值
+     * @param radius    半径
+     * @return  段值数组
+     */
+    static int[] neighbours(int value, int radius) {
+        List<Integer> result = new ArrayList<>();
+        enumerate(value, radius, 0, result);
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void enumerate(int value, int radius, int fromBit, List<Integer> result) {
+        result.add(value);
+        if (radius == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < BAND_BITS; bit++) {
+            enumerate(value ^ (1 << bit), radius - 1, bit + 1, result);
+        }
+    }
+
+    private void collect(int band, int bucket, long pHash, int threshold, Map<Long, Integer> matches) {
+        long[] entries = buckets[band][bucket];
+        int count = bucketSizes[band][bucket];
+        for (int i = 0; i < count * 2; i += 2) {
+            int distance = PHashUtil.hammingDistance(pHash, entries[i + 1]);
+            if (distance <= threshold) {
+                matches.put(entries[i], distance);
+            }
+        }
+    }
+
+    private void put(long imageId, long pHash) {
+        Long previous = hashes.put(imageId, pHash);
+        if (previous != null) {
+            if (previous == pHash) {
+                return;
+            }
+            delete(imageId, previous);
+        }
+        insert(imageId, pHash);
+        size = hashes.size();
+    }
+
+    private void insert(long imageId, long pHash) {
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = band(pHash, band);
+            long[] entries = buckets[band][bucket];
+            int count = bucketSizes[band][bucket];
+            if (entries == null) {
+                entries = new long[4];
+            } else if (entries.length < (count + 1) * 2) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[count * 2] = imageId;
+            entries[count * 2 + 1] = pHash;
+            buckets[band][bucket] = entries;
+            bucketSizes[band][bucket] = count + 1;
+        }
+    }
+
+    private void delete(long imageId, long pHash) {
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = band(pHash, band);
+            int pos = indexOf(band, bucket, imageId);
+            if (pos >= 0) {
+                long[] entries = buckets[band][bucket];
+                int last = (bucketSizes[band][bucket] - 1) * 2;
+                entries[pos] = entries[last];
+                entries[pos + 1] = entries[last + 1];
+                bucketSizes[band][bucket]--;
+            }
+        }
+    }
+
+    private int indexOf(int band, int bucket, long imageId) {
+        long[] entries = buckets[band][bucket];
+        int count = bucketSizes[band][bucket];
+        for (int i = 0; i < count * 2; i += 2) {
+            if (entries[i] == imageId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.local_img_bed.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 由应用直接发送图片文件，用于没有 nginx 的部署
+ * 支持 ETag/If-None-Match (304)、单区间 Range 请求；Tomcat 支持 sendfile 时交给连接器零拷贝发送，
+ * 否则使用 FileChannel.transferTo；远程存储后端中未缓存到本地的原图按区间读取后转发；打包卷中的略缩图从内存映射发送
+ */
+@Service
+@RequiredArgsConstructor
+public class StaticFileService {
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    private static final String[] PUBLIC_PREFIXES = {"original/", "thumbnails/", "volumes/"};
+
+    private final StorageBackend storageBackend;
+    private final StorageTierService storageTierService;
+    private final ThumbnailVolumeService thumbnailVolumeService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    /**
+     * 静态路径是否可以通过 /images-static/ 公开访问：只有原图、略缩图和打包卷，临时文件、内容寻址存储和派生图缓存不公开
+     * @param staticPath    静态路径 (不带前导斜杠)
+     * @return  是否公开
+     */
+    public static boolean isPublic(String staticPath) {
+        for (String prefix : PUBLIC_PREFIXES) {
+            if (staticPath.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 静态路径对应的文件是否在 root-path 下，未启用冷热分层的本地存储后端总是返回 true，打包卷中的略缩图总是返回 false
+     * @param staticPath    静态路径 (不带前导斜杠)
+     * @return  是否可由 nginx 直接提供
+     */
+    public boolean isLocal(String staticPath) {
+        if (ThumbnailVolumeService.isVolumePath(staticPath)) {
+            return false;
+        }
+        return (storageBackend.isLocal() && !storageTierService.isEnabled()) || Files.exists(Paths.get(rootPath, staticPath));
+    }
+
+    /**
+     * 按静态路径发送图片：本地存储后端或本地有缓存时直接发送文件 (可能位于容量层)，否则从远程存储后端按区间读取
+     * @param request   请求
+     * @param response  响应
+     * @param staticPath    静态路径 (不带前导斜杠)
+     * @param etag  带引号的强 ETag，为空时由文件大小和修改时间生成
+     * @param cacheControl  缓存策略
+     * @param varyAccept    返回内容是否随 Accept 变化
+     * @return  是否找到文件，false 时没有写入响应，由调用方决定返回 404 或重新生成
+     * @throws IOException  异常
+     */
+    public boolean serve(HttpServletRequest request, HttpServletResponse response, String staticPath, String etag,
+                         CacheControl cacheControl, boolean varyAccept) throws IOException {
+        if (ThumbnailVolumeService.isVolumePath(staticPath)) {
+            return serveVolume(request, response, staticPath, etag, cacheControl, varyAccept);
+        }
+        if (storageBackend.isLocal()) {
+            return serve(request, response, storageBackend.localFile(staticPath), etag, cacheControl, varyAccept);
+        }
+        Path cached = Paths.get(rootPath, staticPath);
+        if (Files.exists(cached)) {
+            return serve(request, response, cached, etag, cacheControl, varyAccept);
+        }
+        StorageBackend.StorageObject object = storageBackend.stat(staticPath);
+        if (object == null) {
+            return false;
+        }
+        if (etag == null) {
+            etag = defaultEtag(object.size(), object.lastModified().toEpochMilli());
+        }
+        long[] range = prepare(request, response, staticPath, object.size(), etag, cacheControl, varyAccept);
+        if (range == null) {
+            return true;
+        }
+        try (InputStream in = storageBackend.get(object.key(), range[0], range[1] - range[0] + 1)) {
+            in.transferTo(response.getOutputStream());
+        }
+        return true;
+    }
+
+    /**
+     * 发送文件
+     * @param request   请求
+     * @param response  响应
+     * @param file  文件
+     * @param etag  带引号的强 ETag，为空时由文件大小和修改时间生成
+     * @param cacheControl  缓存策略
+     * @param varyAccept    返回内容是否随 Accept 变化
+     * @return  是否找到文件，false 时没有写入响应
+     * @throws IOException  异常
+     */
+    public boolean serve(HttpServletRequest request, HttpServletResponse response, Path file, String etag,
+                         CacheControl cacheControl, boolean varyAccept) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!attributes.isRegularFile()) {
+            return false;
+        }
+        long length = attributes.size();
+        if (etag == null) {
+            etag = defaultEtag(length, attributes.lastModifiedTime().toMillis());
+        }
+        long[] range = prepare(request, response, file.getFileName().toString(), length, etag, cacheControl, varyAccept);
+        if (range == null) {
+            return true;
+        }
+        long start = range[0];
+        long end = range[1];
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            // 由 Tomcat 连接器在响应结束后用 sendfile 发送，结束位置不包含
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long sent = channel.transferTo(position, end + 1 - position, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 发送打包卷中的略缩图，卷中的内容写入后不再改变，ETag 由位置生成
+     */
+    private boolean serveVolume(HttpServletRequest request, HttpServletResponse response, String staticPath, String etag,
+                                CacheControl cacheControl, boolean varyAccept) throws IOException {
+        ByteBuffer data = thumbnailVolumeService.read(staticPath);
+        if (data == null) {
+            return false;
+        }
+        if (etag == null) {
+            etag = "\"" + staticPath.substring(staticPath.indexOf('/') + 1, staticPath.lastIndexOf('.')).replace('/', '-') + "\"";
+        }
+        long[] range = prepare(request, response, staticPath, data.remaining(), etag, cacheControl, varyAccept);
+        if (range == null) {
+            return true;
+        }
+        data.position((int) range[0]).limit((int) range[1] + 1);
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+        return true;
+    }
+
+    private static String defaultEtag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * 写入缓存、类型和区间相关的响应头，处理 304/416/HEAD
+     * @param request   请求
+     * @param response  响应
+     * @param fileName  文件名，用于推断类型
+     * @param length    文件长度
+     * @param etag  ETag
+     * @param cacheControl  缓存策略
+     * @param varyAccept    返回内容是否随 Accept 变化
+     * @return  需要发送的 [start, end] (包含)，null 表示响应已完成，无需发送内容
+     */
+    private static long[] prepare(HttpServletRequest request, HttpServletResponse response, String fileName, long length,
+                                  String etag, CacheControl cacheControl, boolean varyAccept) {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (varyAccept) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+
+        MediaType mediaType = MediaTypeFactory.getMediaType(fileName)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
+        response.setContentType(mediaType.toString());
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // If-Range 与当前版本不一致时忽略 Range，返回完整文件
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return null;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        response.setContentLengthLong(end - start + 1);
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return null;
+        }
+        return new long[]{start, end};
+    }
+
+    /**
+     * If-None-Match 是否命中 (弱比较)
+     * @param header    请求头
+     * @param etag  当前 ETag
+     * @return  是否命中
+     */
+    private static boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析单区间 Range 请求头
+     * @param header    请求头
+     * @param length    文件长度
+     * @return  [start, end] (包含)；空数组表示无法满足；null 表示忽略 (格式不支持或多区间)，返回完整文件
+     */
+    private static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // 最后 N 个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length) {
+                return new long[0];
+            }
+            if (end < start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
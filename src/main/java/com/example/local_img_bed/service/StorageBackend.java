@@ -0,0 +1,87 @@
+package com.example.local_img_bed.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * 原图存储后端，由 image.storage.backend 选择 (local 本地文件系统 / s3 兼容对象存储)
+ * key 为静态路径格式 (original/yyyy/MM/dd/xxx.jpg，不带前导斜杠)，元数据仍保存在数据库中；
+ * 略缩图、派生图等可重新生成的数据始终写在本地 image.storage.root-path 下
+ */
+public interface StorageBackend {
+
+    /**
+     * 对象信息
+     * @param key   key
+     * @param size  字节数
+     * @param lastModified  修改时间
+     */
+    record StorageObject(String key, long size, Instant lastModified) {
+    }
+
+    /**
+     * 是否为本地文件系统，本地存储时原图可由 nginx 直接提供
+     * @return  是否本地
+     */
+    boolean isLocal();
+
+    /**
+     * 保存文件
+     * @param key   key
+     * @param source    本地文件，保存后可能被移走，调用方不应再使用
+     * @throws IOException  异常
+     */
+    void put(String key, Path source) throws IOException;
+
+    /**
+     * 读取完整内容
+     * @param key   key
+     * @return  输入流
+     * @throws IOException  异常，不存在时为 NoSuchFileException
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * 读取区间内容
+     * @param key   key
+     * @param offset    起始位置
+     * @param length    长度
+     * @return  恰好包含 length 个字节的输入流
+     * @throws IOException  异常，不存在时为 NoSuchFileException
+     */
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    /**
+     * 查询对象信息
+     * @param key   key
+     * @return  对象信息，不存在时返回 null
+     * @throws IOException  异常
+     */
+    StorageObject stat(String key) throws IOException;
+
+    /**
+     * 删除对象，不存在时忽略
+     * @param key   key
+     * @throws IOException  异常
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * 流式列出前缀下的全部对象，不包含隐藏文件 (写入中的临时文件)
+     * @param prefix    前缀，如 original/
+     * @param consumer  逐个处理
+     * @throws IOException  异常
+     */
+    void list(String prefix, Consumer<StorageObject> consumer) throws IOException;
+
+    /**
+     * 获取可供解码库直接读取的本地文件；远程存储会先下载到本地缓存目录 (与 key 相同的相对路径)
+     * @param key   key
+     * @return  本地文件
+     * @throws IOException  异常，不存在时为 NoSuchFileException
+     */
+    Path localFile(String key) throws IOException;
+}
@@ -0,0 +1,242 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 原图冷热分层，只用于本地存储后端
+ * 原图访问先在内存中计数，定时批量写入 last_access_time；超过 demote-after-days 天未访问的原图迁移到容量层，
+ * 容量层的原图在一个写入周期内访问达到 promote-hits 次时迁回高速层。两个层级使用相同的相对路径，
+ * 迁移按复制、更新层级、删除旧文件的顺序进行，读取时先查高速层，任一时刻文件都可读；略缩图和派生图始终在高速层
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class StorageTierService {
+    public static final int TIER_HOT = 0;
+    public static final int TIER_COLD = 1;
+
+    private static final int BATCH_SIZE = 500;
+    private static final String ORIGINAL_PREFIX = "original/";
+
+    private final ImageMapper imageMapper;
+    private final BlobStoreService blobStoreService;
+    private final StorageBackend storageBackend;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.storage.tier.enabled:false}")
+    private boolean enabled;
+
+    @Value("${image.storage.tier.cold-root-path:}")
+    private String coldRootPath;
+
+    /**
+     * 超过该天数未访问的原图迁移到容量层
+     */
+    @Value("${image.storage.tier.demote-after-days:30}")
+    private int demoteAfterDays;
+
+    /**
+     * 容量层原图在一个写入周期内的访问次数达到该值时迁回高速层
+     */
+    @Value("${image.storage.tier.promote-hits:3}")
+    private int promoteHits;
+
+    // 上次写入后原图静态路径的访问次数
+    private final Map<String, Integer> accessCounts = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled && storageBackend.isLocal();
+    }
+
+    /**
+     * 记录一次访问，非原图路径忽略
+     * @param staticPath    静态路径 (不带前导斜杠)
+     */
+    public void recordAccess(String staticPath) {
+        if (isEnabled() && staticPath.startsWith(ORIGINAL_PREFIX)) {
+            accessCounts.merge(staticPath, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * 批量写入最近访问时间，并把访问频繁的容量层原图迁回高速层
+     */
+    @Scheduled(fixedDelayString = "${image.storage.tier.access-flush-interval:60000}")
+    public void flushAccesses() {
+        List<String> frequent = writeAccessTimes();
+        int promoted = 0;
+        for (int i = 0; i < frequent.size(); i += BATCH_SIZE) {
+            List<String> paths = frequent.subList(i, Math.min(i + BATCH_SIZE, frequent.size()));
+            for (Image image : imageMapper.selectInTierByStoragePaths(TIER_COLD, paths)) {
+                if (move(image, TIER_COLD, TIER_HOT)) {
+                    promoted++;
+                }
+            }
+        }
+        if (promoted > 0) {
+            log.info("{} 张原图迁回高速层", promoted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writeAccessTimes();
+    }
+
+    /**
+     * 写入最近访问时间，同一写入周期内的访问使用同一时间
+     * @return  访问次数达到 promote-hits 的存储路径
+     */
+    private List<String> writeAccessTimes() {
+        List<String> frequent = new ArrayList<>();
+        if (accessCounts.isEmpty()) {
+            return frequent;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        Iterator<Map.Entry<String, Integer>> iterator = accessCounts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            iterator.remove();
+            String storagePath = File.separator + entry.getKey().replace("/", File.separator);
+            batch.add(storagePath);
+            if (entry.getValue() >= promoteHits) {
+                frequent.add(storagePath);
+            }
+            if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                imageMapper.updateLastAccessTime(batch, now);
+                batch.clear();
+            }
+        }
+        return frequent;
+    }
+
+    /**
+     * 把长期未访问的高速层原图迁移到容量层
+     */
+    @Scheduled(initialDelayString = "${image.storage.tier.move-initial-delay:300000}",
+            fixedDelayString = "${image.storage.tier.move-interval:3600000}")
+    public void demoteIdle() {
+        if (!isEnabled()) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(demoteAfterDays);
+        long afterId = 0;
+        int demoted = 0;
+        int refreshed = 0;
+        while (true) {
+            List<Image> images = imageMapper.selectIdleInTier(TIER_HOT, cutoff, afterId, BATCH_SIZE);
+            if (images.isEmpty()) {
+                break;
+            }
+            for (Image image : images) {
+                afterId = image.getId();
+                // 由 nginx 直接提供的原图不经过应用，以文件访问时间补充 (需要 relatime 等会更新 atime 的挂载方式)
+                LocalDateTime accessed = lastAccessTime(Paths.get(rootPath, image.getStoragePath()));
+                if (accessed != null && accessed.isAfter(cutoff)) {
+                    imageMapper.updateLastAccessTimeById(image.getId(), accessed);
+                    refreshed++;
+                } else if (move(image, TIER_HOT, TIER_COLD)) {
+                    demoted++;
+                }
+            }
+        }
+        if (demoted > 0 || refreshed > 0) {
+            log.info("{} 张原图迁移到容量层，{} 张按文件访问时间保留在高速层", demoted, refreshed);
+        }
+    }
+
+    /**
+     * 在层级间迁移原图：复制到目标层级、更新层级、删除源文件
+     * @param image 图片，需要 id、storage_path 和 hash
+     * @param from  当前层级
+     * @param to    目标层级
+     * @return  是否迁移成功
+     */
+    private boolean move(Image image, int from, int to) {
+        Path source = Paths.get(root(from), image.getStoragePath());
+        Path target = Paths.get(root(to), image.getStoragePath());
+        try {
+            if (!Files.exists(source)) {
+                // 上次迁移在删除源文件后中断
+                if (Files.exists(target)) {
+                    return imageMapper.updateTier(image.getId(), from, to) > 0;
+                }
+                log.warn("原图不存在，无法迁移: {}", image.getStoragePath());
+                return false;
+            }
+            Files.createDirectories(target.getParent());
+            Path tmp = target.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + target.getFileName());
+            try {
+                Files.copy(source, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            if (to == TIER_HOT && blobStoreService.isEnabled()) {
+                // 迁回高速层后重新链接到内容文件，不重复占用空间
+                blobStoreService.adopt(target, image.getHash());
+            }
+            if (imageMapper.updateTier(image.getId(), from, to) == 0) {
+                // 迁移期间图片被删除
+                discard(target, image.getHash(), to);
+                return false;
+            }
+            discard(source, image.getHash(), from);
+            return true;
+        } catch (IOException e) {
+            log.warn("迁移原图失败: {}", image.getStoragePath(), e);
+            return false;
+        }
+    }
+
+    private void discard(Path path, String hash, int tier) throws IOException {
+        if (tier == TIER_HOT && blobStoreService.isEnabled()) {
+            blobStoreService.release(path, hash);
+        } else {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private String root(int tier) {
+        return tier == TIER_HOT ? rootPath : coldRootPath;
+    }
+
+    private static LocalDateTime lastAccessTime(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return LocalDateTime.ofInstant(attributes.lastAccessTime().toInstant(), ZoneId.systemDefault());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("读取文件访问时间失败: {}", path, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 略缩图磁盘配额
+ * 访问记录先在内存中去重，定时批量写入 last_access_time；略缩图总大小超过配额时，
+ * 按最近访问时间从旧到新删除记录和文件，被删除的略缩图在下次访问时重新生成。
+ * 打包卷中的略缩图不计入配额也不淘汰，删除其记录不会释放空间，空间由打包卷压缩回收
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbnailEvictionService {
+    private static final int BATCH_SIZE = 500;
+
+    private final ThumbnailMapper thumbnailMapper;
+    private final ThumbnailManifestService thumbnailManifestService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    /**
+     * 略缩图总大小上限 (字节)，0 表示不限制
+     */
+    @Value("${image.thumbnail.max-size:0}")
+    private long maxSize;
+
+    /**
+     * 超出配额时淘汰到上限的该比例，避免每轮只删少量文件
+     */
+    @Value("${image.thumbnail.eviction-low-watermark:0.9}")
+    private double lowWatermark;
+
+    private record AccessKey(Long originalId, String type) {
+    }
+
+    // 上次写入后被访问过的略缩图
+    private final Set<AccessKey> accessed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 记录一次访问
+     * @param originalId    原图id
+     * @param type  略缩图类型
+     */
+    public void recordAccess(Long originalId, String type) {
+        accessed.add(new AccessKey(originalId, type));
+    }
+
+    /**
+     * 批量写入最近访问时间，同一写入周期内的访问使用同一时间
+     */
+    @Scheduled(fixedDelayString = "${image.thumbnail.access-flush-interval:60000}")
+    @PreDestroy
+    public void flushAccessTimes() {
+        if (accessed.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<Thumbnail> batch = new ArrayList<>(BATCH_SIZE);
+        Iterator<AccessKey> iterator = accessed.iterator();
+        while (iterator.hasNext()) {
+            AccessKey key = iterator.next();
+            iterator.remove();
+            Thumbnail thumbnail = new Thumbnail();
+            thumbnail.setOriginalId(key.originalId());
+            thumbnail.setType(key.type());
+            batch.add(thumbnail);
+            if (batch.size() == BATCH_SIZE || !iterator.hasNext()) {
+                thumbnailMapper.updateLastAccessTime(batch, now);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 超出配额时按最近最少使用淘汰略缩图
+     */
+    @Scheduled(initialDelayString = "${image.thumbnail.eviction-initial-delay:60000}",
+            fixedDelayString = "${image.thumbnail.eviction-interval:600000}")
+    public void evict() {
+        if (maxSize <= 0) {
+            return;
+        }
+        String volumePrefix = ThumbnailVolumeService.likePrefix(null);
+        long total = thumbnailMapper.sumFileSize(volumePrefix);
+        if (total <= maxSize) {
+            return;
+        }
+        // 先写入内存中的访问记录，避免淘汰刚被访问的略缩图
+        flushAccessTimes();
+        long target = (long) (maxSize * lowWatermark);
+        long freed = 0;
+        int removed = 0;
+        while (total - freed > target) {
+            List<Thumbnail> thumbnails = thumbnailMapper.selectLeastRecentlyAccessed(volumePrefix, BATCH_SIZE);
+            if (thumbnails.isEmpty()) {
+                break;
+            }
+            List<Long> ids = new ArrayList<>(thumbnails.size());
+            for (Thumbnail thumbnail : thumbnails) {
+                if (total - freed <= target) {
+                    break;
+                }
+                ids.add(thumbnail.getId());
+                if (thumbnail.getFileSize() != null) {
+                    freed += thumbnail.getFileSize();
+                }
+            }
+            List<Thumbnail> victims = thumbnails.subList(0, ids.size());
+            // 先删除记录和文件，最后移除清单：期间并发加载清单或重新生成时不会再写入已删除的条目，
+            // 清单仍指向已删除文件的请求在发送时发现文件不存在后重新生成
+            thumbnailMapper.deleteBatchIds(ids);
+            for (Thumbnail thumbnail : victims) {
+                try {
+                    Files.deleteIfExists(Paths.get(rootPath, thumbnail.getStoragePath()));
+                } catch (IOException e) {
+                    log.warn("删除略缩图文件失败: {}", thumbnail.getStoragePath(), e);
+                }
+            }
+            for (Thumbnail thumbnail : victims) {
+                thumbnailManifestService.removeThumbnail(thumbnail.getOriginalId(), thumbnail.getType());
+            }
+            removed += ids.size();
+        }
+        log.info("略缩图超出配额 ({} / {} 字节)，淘汰 {} 个，释放 {} 字节", total, maxSize, removed, freed);
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ImageMapper;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 常驻内存的略缩图清单
+ * 记录 (图片id, 略缩图类型) 到略缩图路径、图片id 到原图路径和内容哈希、静态路径到图片id 的映射，命中时不访问数据库和文件系统；
+ * 原图小于规则尺寸 (直接使用原图) 的结果同样缓存。
+ * 后台加载期间移除的条目记为墓碑，加载线程不会把已删除的图片或略缩图重新加入清单
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbnailManifestService {
+    /**
+     * 负缓存标记：该尺寸不生成略缩图，使用原图
+     */
+    private static final String ORIGINAL = "";
+
+    private final ImageMapper imageMapper;
+    private final ThumbnailMapper thumbnailMapper;
+
+    /**
+     * 原图静态路径和 SHA-256
+     */
+    private record Original(String path, String hash) {
+    }
+
+    /**
+     * 清单中的一条略缩图
+     * @param imageId   图片id
+     * @param type  略缩图类型
+     */
+    public record ThumbnailKey(Long imageId, String type) {
+    }
+
+    // 图片id -> 原图
+    private final Map<Long, Original> originals = new ConcurrentHashMap<>();
+    // 图片id -> (略缩图类型 -> 略缩图静态路径或 ORIGINAL)
+    private final Map<Long, Map<String, String>> thumbnails = new ConcurrentHashMap<>();
+    // 原图和略缩图静态路径 -> 图片id，按路径访问时用于计算 ETag
+    private final Map<String, Long> owners = new ConcurrentHashMap<>();
+
+    // 加载期间移除的图片id 和 图片id:略缩图类型，加载完成后清空
+    private final Set<Long> removedImages = ConcurrentHashMap.newKeySet();
+    private final Set<String> removedThumbnails = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+
+    /**
+     * 启动后在后台从数据库流式加载图片和略缩图路径
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long start = System.currentTimeMillis();
+        // 先写入再检查墓碑：移除发生在写入之前时由这里撤销，发生在写入之后时由移除本身删除
+        imageMapper.scanStoragePaths(context -> {
+            Image image = context.getResultObject();
+            Original original = new Original(toStaticPath(image.getStoragePath()), image.getHash());
+            if (originals.putIfAbsent(image.getId(), original) == null) {
+                owners.putIfAbsent(original.path(), image.getId());
+                if (removedImages.contains(image.getId())) {
+                    originals.remove(image.getId(), original);
+                    owners.remove(original.path(), image.getId());
+                }
+            }
+        });
+        thumbnailMapper.scanThumbnails(context -> {
+            Thumbnail thumbnail = context.getResultObject();
+            Long imageId = thumbnail.getOriginalId();
+            String path = toStaticPath(thumbnail.getStoragePath());
+            Map<String, String> types = thumbnails.computeIfAbsent(imageId, id -> new ConcurrentHashMap<>(4));
+            if (types.putIfAbsent(thumbnail.getType(), path) == null) {
+                owners.putIfAbsent(path, imageId);
+                if (removedImages.contains(imageId) || removedThumbnails.contains(imageId + ":" + thumbnail.getType())) {
+                    types.remove(thumbnail.getType(), path);
+                    owners.remove(path, imageId);
+                }
+            }
+        });
+        loaded = true;
+        removedImages.clear();
+        removedThumbnails.clear();
+        log.info("略缩图清单加载完成，共 {} 张图片、{} 组略缩图，耗时 {} 毫秒",
+                originals.size(), thumbnails.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 清单是否已加载完成，加载完成前未命中不代表不存在
+     * @return  是否已加载
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 查询已知的访问路径
+     * @param imageId   图片id
+     * @param type  略缩图类型
+     * @return  略缩图或原图的静态路径 (不带前导斜杠)，未知时返回 null
+     */
+    public String resolve(Long imageId, String type) {
+        Map<String, String> types = thumbnails.get(imageId);
+        String path = types == null ? null : types.get(type);
+        if (path == null) {
+            return null;
+        }
+        if (ORIGINAL.equals(path)) {
+            Original original = originals.get(imageId);
+            return original == null ? null : original.path();
+        }
+        return path;
+    }
+
+    /**
+     * 查询已生成的略缩图路径，不包含使用原图的记录
+     * @param imageId   图片id
+     * @param type  略缩图类型
+     * @return  略缩图静态路径，未知或使用原图时返回 null
+     */
+    public String resolveThumbnail(Long imageId, String type) {
+        Map<String, String> types = thumbnails.get(imageId);
+        String path = types == null ? null : types.get(type);
+        return ORIGINAL.equals(path) ? null : path;
+    }
+
+    /**
+     * 查询原图静态路径，清单中没有时从数据库读取并记入清单
+     * @param imageId   图片id
+     * @return  原图静态路径 (不带前导斜杠)
+     * @throws IOException  图片不存在
+     */
+    public String loadStoragePath(Long imageId) throws IOException {
+        return loadOriginal(imageId).path();
+    }
+
+    /**
+     * 图片或其派生图的强 ETag：原图为内容哈希，派生图为内容哈希加派生路径的摘要
+     * @param imageId   图片id
+     * @param staticPath    返回给客户端的静态路径
+     * @return  带引号的 ETag
+     * @throws IOException  图片不存在
+     */
+    public String etag(Long imageId, String staticPath) throws IOException {
+        return etag(loadOriginal(imageId), staticPath);
+    }
+
+    /**
+     * 按静态路径查询 ETag，与按图片id访问时返回的相同
+     * @param staticPath    原图或略缩图的静态路径
+     * @return  带引号的 ETag，清单中没有该路径时返回 null
+     */
+    public String etagForPath(String staticPath) {
+        Long imageId = owners.get(staticPath);
+        Original original = imageId == null ? null : originals.get(imageId);
+        return original == null ? null : etag(original, staticPath);
+    }
+
+    /**
+     * 原图静态路径是否属于未删除的图片，回收站中的原图不能再按路径访问
+     * 清单中没有该路径时 (清单加载中或由其他节点上传) 查询数据库并记入清单
+     * @param staticPath    原图静态路径
+     * @return  是否可以访问
+     */
+    public boolean isOriginalAvailable(String staticPath) {
+        Long imageId = owners.get(staticPath);
+        Original original = imageId == null ? null : originals.get(imageId);
+        if (original != null && original.path().equals(staticPath)) {
+            return true;
+        }
+        Image image = imageMapper.selectFileByStoragePath(File.separator + staticPath.replace("/", File.separator));
+        if (image == null || image.getDeletedAt() != null) {
+            return false;
+        }
+        putOriginal(image);
+        return true;
+    }
+
+    /**
+     * 记录原图路径和内容哈希，用于从回收站还原的图片
+     * @param image 图片，需包含 id、storage_path、hash
+     */
+    public void putOriginal(Image image) {
+        Original original = new Original(toStaticPath(image.getStoragePath()), image.getHash());
+        originals.put(image.getId(), original);
+        owners.put(original.path(), image.getId());
+    }
+
+    private static String etag(Original original, String staticPath) {
+        if (original.path().equals(staticPath)) {
+            return "\"" + original.hash() + "\"";
+        }
+        return "\"" + original.hash() + "-" + Integer.toHexString(staticPath.hashCode()) + "\"";
+    }
+
+    private Original loadOriginal(Long imageId) throws IOException {
+        Original original = originals.get(imageId);
+        if (original == null) {
+            Image image = imageMapper.selectById(imageId);
+            if (image == null || image.getDeletedAt() != null) {
+                throw new IOException("Image not found: " + imageId);
+            }
+            original = new Original(toStaticPath(image.getStoragePath()), image.getHash());
+            originals.put(imageId, original);
+            owners.put(original.path(), imageId);
+        }
+        return original;
+    }
+
+    /**
+     * 记录略缩图路径
+     * @param imageId   图片id
+     * @param type  略缩图类型
+     * @param thumbnailPath 略缩图相对路径，null 表示该类型使用原图
+     */
+    public void putThumbnail(Long imageId, String type, String thumbnailPath) {
+        String path = thumbnailPath == null ? ORIGINAL : toStaticPath(thumbnailPath);
+        if (!ORIGINAL.equals(path)) {
+            owners.put(path, imageId);
+        }
+        String previous = thumbnails.computeIfAbsent(imageId, id -> new ConcurrentHashMap<>(4)).put(type, path);
+        if (previous != null && !previous.equals(path)) {
+            owners.remove(previous, imageId);
+        }
+    }
+
+    /**
+     * 移除单个略缩图，下次访问时重新生成
+     * @param imageId   图片id
+     * @param type  略缩图类型
+     */
+    public void removeThumbnail(Long imageId, String type) {
+        if (!loaded) {
+            removedThumbnails.add(imageId + ":" + type);
+        }
+        Map<String, String> types = thumbnails.get(imageId);
+        String path = types == null ? null : types.remove(type);
+        if (path != null) {
+            owners.remove(path, imageId);
+        }
+    }
+
+    /**
+     * 按静态路径移除略缩图，用于发送时发现文件已被外部删除 (其他节点淘汰或手动删除)
+     * @param staticPath    略缩图静态路径
+     * @return  被移除的略缩图，清单中没有该略缩图时返回 null
+     */
+    public ThumbnailKey removeThumbnailPath(String staticPath) {
+        Long imageId = owners.get(staticPath);
+        Map<String, String> types = imageId == null ? null : thumbnails.get(imageId);
+        if (types == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : types.entrySet()) {
+            if (staticPath.equals(entry.getValue())) {
+                removeThumbnail(imageId, entry.getKey());
+                return new ThumbnailKey(imageId, entry.getKey());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 移除图片及其全部略缩图
+     * @param imageId   图片id
+     */
+    public void remove(Long imageId) {
+        if (!loaded) {
+            removedImages.add(imageId);
+        }
+        Original original = originals.remove(imageId);
+        if (original != null) {
+            owners.remove(original.path(), imageId);
+        }
+        Map<String, String> types = thumbnails.remove(imageId);
+        if (types != null) {
+            types.values().forEach(path -> owners.remove(path, imageId));
+        }
+    }
+
+    /**
+     * 存储路径转换为静态访问路径：去掉前导分隔符，统一使用 /
+     * @param storagePath   存储路径
+     * @return  静态路径
+     */
+    public static String toStaticPath(String storagePath) {
+        String cleanPath = storagePath.startsWith(File.separator) ? storagePath.substring(1) : storagePath;
+        return cleanPath.replace(File.separator, "/");
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.local_img_bed.service;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.example.local_img_bed.entity.Thumbnail;
 import com.example.local_img_bed.mapper.ThumbnailMapper;
+import com.example.local_img_bed.utils.ImageDecodeUtil;
+import com.example.local_img_bed.utils.ImageEncodeUtil;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
@@ -9,24 +12,56 @@ import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
 public class ThumbnailService {
 
+    /**
+     * 降分辨率解码时保留的目标宽度倍数，避免直接降采样到目标尺寸产生锯齿
+     */
+    private static final int DECODE_OVERSAMPLE = 2;
+
+    /**
+     * WebP 输出格式
+     */
+    public static final String WEBP = "webp";
+
     private final ThumbnailMapper thumbnailMapper;
+    private final ThumbnailManifestService thumbnailManifestService;
+    private final ThumbnailVolumeService thumbnailVolumeService;
+
+    /**
+     * 正在生成的略缩图，key 为 原图id:略缩图类型
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
 
     @Value("${image.storage.root-path}")
     private String rootPath;
 
+    /**
+     * 后台预生成的输出格式，只生成大多数请求会得到的格式，另一种格式在首次访问时生成：
+     * webp 对应声明支持 WebP 的浏览器，original 表示与原图格式一致
+     */
+    @Value("${image.thumbnail.eager-format:webp}")
+    private String eagerFormat;
+
     @Data
     @AllArgsConstructor
     private static class ThumbRule {
@@ -46,65 +81,319 @@ public class ThumbnailService {
             "large", new ThumbRule("large", 1600, 1200,"large_", 0.9f)
     );
 
+    /**
+     * 是否存在该尺寸的压缩规则
+     * @param size  大小
+     * @return  是否存在
+     */
+    public boolean supports(String size) {
+        return thumbnailRules.containsKey(size);
+    }
+
+    /**
+     * 略缩图类型，原格式为尺寸名，其他格式为 尺寸名.格式 (如 medium.webp)
+     * @param size  大小
+     * @param format    输出格式，null 表示与原图格式一致
+     * @return  略缩图类型
+     */
+    public static String thumbnailType(String size, String format) {
+        return format == null ? size : size + "." + format;
+    }
+
+    /**
+     * 从略缩图类型中取出尺寸名
+     * @param type  略缩图类型
+     * @return  尺寸名
+     */
+    public static String sizeOf(String type) {
+        int dot = type.indexOf('.');
+        return dot < 0 ? type : type.substring(0, dot);
+    }
+
     /**
      * 生成略缩图，如果存在直接返回文件
+     * 同一原图同一类型的并发请求只生成一次，其余请求等待其结果
      * @param source    源文件
      * @param size  大小
+     * @param format    输出格式，null 表示与原图格式一致
      * @param originalId    原图id
      * @return  返回略缩图相对路劲
      */
-    public String generateThumbnail(File source, String size, Long originalId) throws IOException {
+    public String generateThumbnail(File source, String size, String format, Long originalId) throws IOException {
         ThumbRule rule = thumbnailRules.get(size);
         // 如果规则不存在，直接返回原图
         if(null==rule){
             return null;
         }
 
-        //拼接图片路劲，检查文件是否存在
-        String originalFileName = rule.getPrefix() + source.getName();
-        String thumbnailRelativePath = Paths.get("thumbnails", size, originalFileName).toString();
-        Path thumbnailAbsolutePath = Paths.get(rootPath, thumbnailRelativePath);
+        //检查略缩图是否已存在
+        String existing = existingThumbnail(source, rule, format, originalId);
+        if (existing != null) {
+            return existing;
+        }
+
+        // 已有线程在生成时等待其结果
+        String key = flightKey(originalId, thumbnailType(size, format));
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            String result = render(source, rule, format, originalId);
+            flight.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * 一次解码生成全部尺寸的略缩图 (只生成预生成格式)，从大到小级联：大图由原图缩放，中图由大图缩放，小图由中图缩放
+     * 已存在或正由其他线程生成的略缩图不会重复写入，原图宽度不超过规则宽度的尺寸跳过
+     * @param source    源文件
+     * @param originalId    原图id
+     * @throws IOException  异常
+     */
+    public void generateAllThumbnails(File source, Long originalId) throws IOException {
+        ImageDecodeUtil.ImageHeader header = ImageDecodeUtil.readHeader(source);
+        if (header == null) {
+            return;
+        }
+        List<ThumbRule> rules = thumbnailRules.values().stream()
+                .filter(rule -> header.width() > rule.getWidth())
+                .sorted(Comparator.comparing(ThumbRule::getWidth).reversed())
+                .toList();
+        String format = WEBP.equals(eagerFormat) ? WEBP : null;
+        // 认领缺失的略缩图，级联只需进行到最小的认领尺寸
+        Map<String, CompletableFuture<String>> claimed = new HashMap<>();
+        int last = -1;
+        for (int i = 0; i < rules.size(); i++) {
+            ThumbRule rule = rules.get(i);
+            if (existingThumbnail(source, rule, format, originalId) != null) {
+                continue;
+            }
+            String type = thumbnailType(rule.getRuleName(), format);
+            CompletableFuture<String> flight = new CompletableFuture<>();
+            if (inFlight.putIfAbsent(flightKey(originalId, type), flight) == null) {
+                claimed.put(type, flight);
+                last = i;
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+
+        try {
+            BufferedImage image = ImageDecodeUtil.readForWidth(source, header, rules.get(0).getWidth() * DECODE_OVERSAMPLE);
+            for (int i = 0; image != null && i <= last; i++) {
+                ThumbRule rule = rules.get(i);
+                image = Thumbnails.of(image)
+                        .width(rule.getWidth())
+                        .keepAspectRatio(true)
+                        .asBufferedImage();
+                CompletableFuture<String> flight = claimed.get(thumbnailType(rule.getRuleName(), format));
+                if (flight != null) {
+                    flight.complete(writeThumbnail(image, rule, format, source, originalId));
+                }
+            }
+            // 无法解码时等待者退回原图
+            claimed.values().forEach(flight -> flight.complete(null));
+        } catch (IOException | RuntimeException e) {
+            claimed.values().forEach(flight -> flight.completeExceptionally(e));
+            throw e;
+        } finally {
+            claimed.forEach((type, flight) -> inFlight.remove(flightKey(originalId, type), flight));
+        }
+    }
 
-        // 检查文件是否存在
-        if (!Files.exists(thumbnailAbsolutePath)) {
-            // 检查图片大小，如果原图小于等于目标宽度，直接返回原图
-            BufferedImage image = ImageIO.read(source);
-            if (image.getWidth() <= rule.getWidth()) {
+    /**
+     * 解码原图并生成单个略缩图
+     * @param source    源文件
+     * @param rule  压缩规则
+     * @param format    输出格式，null 表示与原图格式一致
+     * @param originalId    原图id
+     * @return  略缩图相对路径，null 表示应使用原图
+     * @throws IOException  异常
+     */
+    private String render(File source, ThumbRule rule, String format, Long originalId) throws IOException {
+        // 认领前可能刚有其他线程生成完成
+        String existing = existingThumbnail(source, rule, format, originalId);
+        if (existing != null) {
+            return existing;
+        }
+        // 检查图片大小，如果原图小于等于目标宽度，直接返回原图 (只读文件头，不解码像素)
+        ImageDecodeUtil.ImageHeader header = ImageDecodeUtil.readHeader(source);
+        if (header == null || header.width() <= rule.getWidth()) {
+            return null;
+        }
+        // 按缩小比例解码，保留目标宽度的若干倍供 Thumbnailator 平滑缩放
+        BufferedImage image = ImageDecodeUtil.readForWidth(source, header, rule.getWidth() * DECODE_OVERSAMPLE);
+        if (image == null) {
+            return null;
+        }
+
+        // 使用Thumbnail生成缩略图
+        return writeThumbnail(Thumbnails.of(image)
+                .width(rule.getWidth())
+                .keepAspectRatio(true)
+                .asBufferedImage(), rule, format, source, originalId);
+    }
+
+    /**
+     * 查询已生成的略缩图，打包卷中的略缩图以清单为准 (清单加载完成前未命中时查询数据库)，其他检查文件是否存在
+     * @param source    源文件
+     * @param rule  压缩规则
+     * @param format    输出格式，null 表示与原图格式一致
+     * @param originalId    原图id
+     * @return  略缩图相对路径，不存在时返回 null
+     */
+    private String existingThumbnail(File source, ThumbRule rule, String format, Long originalId) {
+        if (thumbnailVolumeService.packs(rule.getRuleName())) {
+            String type = thumbnailType(rule.getRuleName(), format);
+            String path = thumbnailManifestService.resolveThumbnail(originalId, type);
+            if (path != null || thumbnailManifestService.isLoaded()) {
+                return path;
+            }
+            // 清单还在加载，未命中不代表没有生成过，避免重复追加到打包卷
+            Thumbnail thumbnail = thumbnailMapper.selectOne(new LambdaQueryWrapper<Thumbnail>()
+                    .eq(Thumbnail::getOriginalId, originalId).eq(Thumbnail::getType, type));
+            if (thumbnail == null) {
                 return null;
             }
+            thumbnailManifestService.putThumbnail(originalId, type, thumbnail.getStoragePath());
+            return ThumbnailManifestService.toStaticPath(thumbnail.getStoragePath());
+        }
+        String thumbnailRelativePath = thumbnailRelativePath(source, rule, format, originalId);
+        return Files.exists(Paths.get(rootPath, thumbnailRelativePath)) ? thumbnailRelativePath : null;
+    }
 
-            // 创建目录
-            Files.createDirectories(thumbnailAbsolutePath.getParent());
-            File file = thumbnailAbsolutePath.toFile();
+    /**
+     * 等待其他线程的生成结果
+     * @param running   正在进行的生成
+     * @return  略缩图相对路径，null 表示使用原图
+     * @throws IOException  生成失败
+     */
+    private String await(CompletableFuture<String> running) throws IOException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("生成略缩图失败", e.getCause());
+        }
+    }
 
-            // 使用Thumbnail生成缩略图
-            Thumbnails.of(image)
-                    .width(rule.getWidth())
-                    .keepAspectRatio(true)
-                    .outputQuality(rule.getQuality())
-                    .toFile(file);
+    private String flightKey(Long originalId, String type) {
+        return originalId + ":" + type;
+    }
+
+    /**
+     * 略缩图相对路径 thumbnails/尺寸/分片/文件名，非原格式时追加格式扩展名
+     * @param source    源文件
+     * @param rule  压缩规则
+     * @param format    输出格式，null 表示与原图格式一致
+     * @param originalId    原图id
+     * @return  相对路径
+     */
+    private String thumbnailRelativePath(File source, ThumbRule rule, String format, Long originalId) {
+        String fileName = rule.getPrefix() + source.getName() + (format == null ? "" : "." + format);
+        return Paths.get("thumbnails", rule.getRuleName(), shardDirectory(originalId), fileName).toString();
+    }
+
+    /**
+     * 分片目录：原图id低 16 位的两级十六进制前缀 (如 0a/3f)，每个尺寸目录下最多 65536 个子目录，
+     * 连续的id均匀分布到各子目录
+     * @param originalId    原图id
+     * @return  分片目录
+     */
+    public static String shardDirectory(Long originalId) {
+        String hex = String.format("%04x", originalId & 0xFFFF);
+        return hex.substring(0, 2) + File.separator + hex.substring(2, 4);
+    }
 
-            // 保存略缩图到数据库
-            saveThumbnailImage(file,size,originalId);
+    /**
+     * 按规则的质量写出已缩放的略缩图并保存到数据库
+     * 先写入同目录下的临时文件再原子重命名，读取方不会看到写了一半的文件；打包的尺寸编码到内存后追加到打包卷
+     * @param image 已缩放到目标尺寸的图片
+     * @param rule  压缩规则
+     * @param format    输出格式，null 表示与原图格式一致
+     * @param source    源文件
+     * @param originalId    原图id
+     * @return  略缩图相对路径
+     * @throws IOException  异常
+     */
+    private String writeThumbnail(BufferedImage image, ThumbRule rule, String format, File source, Long originalId) throws IOException {
+        String type = thumbnailType(rule.getRuleName(), format);
+        if (thumbnailVolumeService.packs(rule.getRuleName())) {
+            String extension = format == null ? extension(source) : format;
+            byte[] data;
+            if (WEBP.equals(format)) {
+                data = ImageEncodeUtil.encodeWebP(image, rule.getQuality());
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Thumbnails.of(image)
+                        .scale(1)
+                        .outputQuality(rule.getQuality())
+                        .outputFormat(extension)
+                        .toOutputStream(out);
+                data = out.toByteArray();
+            }
+            String storagePath = thumbnailVolumeService.append(data, extension);
+            saveThumbnailImage(storagePath, data.length, type, originalId);
+            return storagePath;
         }
-        // 返回相对路劲
+
+        String thumbnailRelativePath = thumbnailRelativePath(source, rule, format, originalId);
+        Path thumbnailAbsolutePath = Paths.get(rootPath, thumbnailRelativePath);
+        // 创建目录
+        Files.createDirectories(thumbnailAbsolutePath.getParent());
+        // 临时文件保留原扩展名，编码器按扩展名选择输出格式
+        Path tempPath = thumbnailAbsolutePath.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + thumbnailAbsolutePath.getFileName());
+        try {
+            if (WEBP.equals(format)) {
+                ImageEncodeUtil.writeWebP(image, tempPath, rule.getQuality());
+            } else {
+                Thumbnails.of(image)
+                        .scale(1)
+                        .outputQuality(rule.getQuality())
+                        .toFile(tempPath.toFile());
+            }
+            Files.move(tempPath, thumbnailAbsolutePath, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+
+        // 保存略缩图到数据库
+        File file = thumbnailAbsolutePath.toFile();
+        saveThumbnailImage(file.getAbsolutePath().replace(rootPath, ""), file.length(), type, originalId);
         return thumbnailRelativePath;
     }
 
+    private static String extension(File source) {
+        String name = source.getName();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+    }
 
     /**
      * 保存略缩图路径到数据库
-     * @param file  略缩图文件
+     * @param storagePath   存储路径
+     * @param fileSize  文件大小
      * @param type  略缩图类型
      * @param originalId    原图id
      */
-    private void saveThumbnailImage(File file, String type, Long originalId){
+    private void saveThumbnailImage(String storagePath, long fileSize, String type, Long originalId){
         Thumbnail thumbnail = new Thumbnail();
         thumbnail.setType(type);
-        thumbnail.setStoragePath(file.getAbsolutePath().replace(rootPath, ""));
-        thumbnail.setFileSize(file.length());
+        thumbnail.setStoragePath(storagePath);
+        thumbnail.setFileSize(fileSize);
         thumbnail.setOriginalId(originalId);
 
-        thumbnailMapper.insert(thumbnail);
+        thumbnailMapper.upsert(thumbnail);
+        thumbnailManifestService.putThumbnail(originalId, type, thumbnail.getStoragePath());
     }
 }
\ No newline at end of file
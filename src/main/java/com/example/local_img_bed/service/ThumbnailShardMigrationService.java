@@ -0,0 +1,119 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把旧版平铺目录 (thumbnails/尺寸/文件名) 中的略缩图迁移到分片目录 (thumbnails/尺寸/xx/yy/文件名)
+ * 每个文件先在新位置建立硬链接，批量更新数据库和清单后再删除旧路径，迁移过程中旧地址始终可访问
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbnailShardMigrationService {
+    private static final int BATCH_SIZE = 500;
+
+    private final ThumbnailMapper thumbnailMapper;
+    private final ThumbnailManifestService thumbnailManifestService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    /**
+     * 启动后在后台迁移，全部迁移完成后只剩一次空查询
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        long afterId = 0;
+        int migrated = 0;
+        while (true) {
+            List<Thumbnail> thumbnails = thumbnailMapper.selectUnshardedAfter(afterId, BATCH_SIZE);
+            if (thumbnails.isEmpty()) {
+                break;
+            }
+            afterId = thumbnails.get(thumbnails.size() - 1).getId();
+
+            List<Thumbnail> updates = new ArrayList<>(thumbnails.size());
+            List<Path> oldFiles = new ArrayList<>(thumbnails.size());
+            for (Thumbnail thumbnail : thumbnails) {
+                try {
+                    Path oldFile = Paths.get(rootPath, thumbnail.getStoragePath());
+                    Path newFile = oldFile.getParent()
+                            .resolve(ThumbnailService.shardDirectory(thumbnail.getOriginalId()))
+                            .resolve(oldFile.getFileName());
+                    if (!link(oldFile, newFile)) {
+                        continue;
+                    }
+                    Thumbnail update = new Thumbnail();
+                    update.setId(thumbnail.getId());
+                    update.setOriginalId(thumbnail.getOriginalId());
+                    update.setType(thumbnail.getType());
+                    update.setStoragePath(newFile.toAbsolutePath().toString().replace(rootPath, ""));
+                    updates.add(update);
+                    oldFiles.add(oldFile);
+                } catch (IOException e) {
+                    log.warn("迁移略缩图 {} 失败: {}", thumbnail.getStoragePath(), e.getMessage());
+                }
+            }
+            if (updates.isEmpty()) {
+                continue;
+            }
+
+            thumbnailMapper.updateStoragePaths(updates);
+            for (Thumbnail update : updates) {
+                thumbnailManifestService.putThumbnail(update.getOriginalId(), update.getType(), update.getStoragePath());
+            }
+            for (Path oldFile : oldFiles) {
+                try {
+                    Files.deleteIfExists(oldFile);
+                } catch (IOException e) {
+                    log.warn("删除旧略缩图 {} 失败: {}", oldFile, e.getMessage());
+                }
+            }
+            migrated += updates.size();
+        }
+        if (migrated > 0) {
+            log.info("略缩图分片目录迁移完成，共迁移 {} 个文件", migrated);
+        }
+    }
+
+    /**
+     * 在新位置建立指向旧文件的硬链接，文件系统不支持硬链接时复制
+     * @param oldFile   旧路径
+     * @param newFile   新路径
+     * @return  新路径上是否已有文件
+     * @throws IOException  异常
+     */
+    private boolean link(Path oldFile, Path newFile) throws IOException {
+        if (!Files.exists(oldFile)) {
+            // 旧文件已不存在 (上次迁移在删除旧文件后中断)，只需更新记录
+            return Files.exists(newFile);
+        }
+        Files.createDirectories(newFile.getParent());
+        try {
+            Files.createLink(newFile, oldFile);
+        } catch (FileAlreadyExistsException e) {
+            return true;
+        } catch (UnsupportedOperationException e) {
+            Files.copy(oldFile, newFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 小尺寸略缩图的打包卷
+ * 略缩图依次追加到大的段文件 (volumes/000001.seg) 中，不再每张占用一个文件和目录项；
+ * 略缩图表的 storage_path 即索引，格式为 volumes/段号/偏移/长度.扩展名，该路径同时作为静态访问路径。
+ * 读取使用内存映射，删除只移除数据库记录，由定时压缩把有效数据较少的段中的略缩图复制到当前段后回收
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbnailVolumeService {
+    private static final String VOLUME_DIR = "volumes";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int BATCH_SIZE = 500;
+
+    private final ThumbnailMapper thumbnailMapper;
+    private final ThumbnailManifestService thumbnailManifestService;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.thumbnail.volume.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 写入打包卷的略缩图尺寸
+     */
+    @Value("${image.thumbnail.volume.sizes:small}")
+    private Set<String> sizes;
+
+    /**
+     * 段文件大小上限 (字节)，内存映射要求不超过 2GB
+     */
+    @Value("${image.thumbnail.volume.segment-size:268435456}")
+    private long segmentSize;
+
+    /**
+     * 有效数据占比低于该值的段会被压缩
+     */
+    @Value("${image.thumbnail.volume.compact-threshold:0.5}")
+    private double compactThreshold;
+
+    /**
+     * 卷中的位置
+     * @param segment   段号
+     * @param offset    偏移
+     * @param length    长度
+     */
+    private record Location(int segment, int offset, int length) {
+    }
+
+    // 段号 -> 只读内存映射，当前段增长后按需重新映射
+    private final Map<Integer, MappedByteBuffer> mapped = new ConcurrentHashMap<>();
+
+    // 当前追加的段，由 this 加锁保护
+    private FileChannel active;
+    private int activeSegment;
+    private long activeSize;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+        Path directory = Paths.get(rootPath, VOLUME_DIR);
+        Files.createDirectories(directory);
+        int last = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Integer segment = segmentOf(file.getFileName().toString());
+                if (segment != null) {
+                    last = Math.max(last, segment);
+                }
+            }
+        }
+        // 重启后继续追加到最后一个段，段尾未入库的数据由压缩回收
+        if (last > 0 && Files.size(segmentPath(last)) < segmentSize) {
+            openSegment(last);
+        } else {
+            openSegment(last + 1);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        if (active != null) {
+            active.close();
+        }
+    }
+
+    /**
+     * 该尺寸的略缩图是否写入打包卷
+     * @param size  尺寸名
+     * @return  是否打包
+     */
+    public boolean packs(String size) {
+        return enabled && sizes.contains(size);
+    }
+
+    /**
+     * 静态路径是否指向打包卷
+     * @param staticPath    静态路径 (不带前导斜杠)
+     * @return  是否打包卷路径
+     */
+    public static boolean isVolumePath(String staticPath) {
+        return staticPath.startsWith(VOLUME_DIR + "/");
+    }
+
+    /**
+     * 追加一张略缩图
+     * @param data  编码后的图片
+     * @param extension 扩展名，用于确定返回的内容类型
+     * @return  存储路径 (带前导分隔符，与文件略缩图一致)，返回时数据已落盘，可以写入数据库
+     * @throws IOException  异常
+     */
+    public synchronized String append(byte[] data, String extension) throws IOException {
+        if (activeSize > 0 && activeSize + data.length > segmentSize) {
+            active.close();
+            openSegment(activeSegment + 1);
+        }
+        long offset = activeSize;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            active.write(buffer, offset + buffer.position());
+        }
+        // 落盘后才写入数据库，崩溃后不会有记录指向未写完的数据
+        active.force(false);
+        activeSize += data.length;
+        return File.separator + Paths.get(VOLUME_DIR, String.format("%06d", activeSegment),
+                String.valueOf(offset), data.length + "." + extension);
+    }
+
+    /**
+     * 读取略缩图
+     * @param staticPath    打包卷静态路径
+     * @return  只读的内存映射切片，路径无效或段已回收时返回 null
+     * @throws IOException  异常
+     */
+    public ByteBuffer read(String staticPath) throws IOException {
+        Location location = parse(staticPath);
+        if (location == null) {
+            return null;
+        }
+        long end = (long) location.offset() + location.length();
+        MappedByteBuffer buffer = mapped.get(location.segment());
+        if (buffer == null || buffer.capacity() < end) {
+            try {
+                buffer = mapped.compute(location.segment(), (segment, old) ->
+                        old != null && old.capacity() >= end ? old : map(segment));
+            } catch (UncheckedIOException e) {
+                if (e.getCause() instanceof NoSuchFileException) {
+                    return null;
+                }
+                throw e.getCause();
+            }
+            if (buffer.capacity() < end) {
+                return null;
+            }
+        }
+        return buffer.slice(location.offset(), location.length()).asReadOnlyBuffer();
+    }
+
+    /**
+     * 压缩打包卷：删除没有有效数据的段；有效数据占比低于阈值的段，把其中的略缩图复制到当前段并更新路径。
+     * 被复制走的段在下一轮才删除，已拿到旧地址的客户端在此期间仍可访问
+     */
+    @Scheduled(initialDelayString = "${image.thumbnail.volume.compact-initial-delay:600000}",
+            fixedDelayString = "${image.thumbnail.volume.compact-interval:3600000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        Map<Integer, Long> live = new HashMap<>();
+        thumbnailMapper.scanByStoragePathPrefix(likePrefix(null), context -> {
+            Location location = parse(ThumbnailManifestService.toStaticPath(context.getResultObject().getStoragePath()));
+            if (location != null) {
+                live.merge(location.segment(), (long) location.length(), Long::sum);
+            }
+        });
+        int current;
+        synchronized (this) {
+            current = activeSegment;
+        }
+        int removed = 0;
+        int compacted = 0;
+        try (Stream<Path> files = Files.list(Paths.get(rootPath, VOLUME_DIR))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Integer segment = segmentOf(file.getFileName().toString());
+                if (segment == null || segment >= current) {
+                    continue;
+                }
+                long used = live.getOrDefault(segment, 0L);
+                if (used == 0) {
+                    mapped.remove(segment);
+                    Files.deleteIfExists(file);
+                    removed++;
+                } else if (used < Files.size(file) * compactThreshold) {
+                    relocate(segment);
+                    compacted++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("压缩略缩图打包卷失败", e);
+        }
+        if (removed > 0 || compacted > 0) {
+            log.info("略缩图打包卷压缩完成，删除 {} 个空段，迁移 {} 个段", removed, compacted);
+        }
+    }
+
+    /**
+     * 把段中仍有效的略缩图复制到当前段
+     * @param segment   段号
+     * @throws IOException  异常
+     */
+    private void relocate(int segment) throws IOException {
+        String prefix = likePrefix(segment);
+        long afterId = 0;
+        while (true) {
+            List<Thumbnail> thumbnails = thumbnailMapper.selectByStoragePathPrefix(prefix, afterId, BATCH_SIZE);
+            if (thumbnails.isEmpty()) {
+                return;
+            }
+            for (Thumbnail thumbnail : thumbnails) {
+                afterId = thumbnail.getId();
+                String staticPath = ThumbnailManifestService.toStaticPath(thumbnail.getStoragePath());
+                ByteBuffer data = read(staticPath);
+                if (data == null) {
+                    continue;
+                }
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                String newPath = append(bytes, staticPath.substring(staticPath.lastIndexOf('.') + 1));
+                // 记录在复制期间被删除或重新生成时不覆盖，复制出的内容留给下次压缩回收
+                if (thumbnailMapper.updateStoragePathIfUnchanged(thumbnail.getId(), thumbnail.getStoragePath(), newPath) > 0) {
+                    thumbnailManifestService.putThumbnail(thumbnail.getOriginalId(), thumbnail.getType(), newPath);
+                }
+            }
+        }
+    }
+
+    private void openSegment(int segment) throws IOException {
+        active = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSegment = segment;
+        activeSize = active.size();
+    }
+
+    private MappedByteBuffer map(int segment) {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return Paths.get(rootPath, VOLUME_DIR, String.format("%06d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private static Integer segmentOf(String fileName) {
+        if (!fileName.endsWith(SEGMENT_SUFFIX)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析静态路径 volumes/段号/偏移/长度.扩展名
+     * @param staticPath    静态路径
+     * @return  位置，格式不正确时返回 null
+     */
+    private static Location parse(String staticPath) {
+        String[] parts = staticPath.split("/");
+        if (parts.length != 4 || !VOLUME_DIR.equals(parts[0])) {
+            return null;
+        }
+        int dot = parts[3].indexOf('.');
+        try {
+            return new Location(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(dot < 0 ? parts[3] : parts[3].substring(0, dot)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 存储路径的 LIKE 前缀，转义分隔符中的反斜杠
+     * @param segment   段号，null 表示整个打包卷
+     * @return  前缀
+     */
+    static String likePrefix(Integer segment) {
+        String prefix = File.separator + VOLUME_DIR + File.separator
+                + (segment == null ? "" : String.format("%06d", segment) + File.separator);
+        return prefix.replace("\\", "\\\\");
+    }
+}
@@ -0,0 +1,452 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.utils.ImageDecodeUtil;
+import com.example.local_img_bed.utils.ImageEncodeUtil;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.geometry.Positions;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * 按需缩放/裁剪
+ * 宽高和质量参数归一化到有限的档位，避免任意参数绕过缓存；结果写入派生图缓存目录，
+ * 缓存按总字节数上限以最近最少使用 (LRU) 淘汰。LRU 清单只在本节点内存中，
+ * 其他节点或崩溃前写入的文件在访问时补记，并由定时扫描计入总大小
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class TransformService {
+    /**
+     * 等比缩放到宽高范围内
+     */
+    public static final String FIT_CONTAIN = "contain";
+    /**
+     * 等比缩放填满宽高，超出部分居中裁剪
+     */
+    public static final String FIT_COVER = "cover";
+
+    private static final int DEFAULT_QUALITY = 85;
+    private static final int[] QUALITY_BUCKETS = {50, 70, 85, 95};
+    private static final int DECODE_OVERSAMPLE = 2;
+    private static final String CACHE_DIR = "cache/transform";
+
+    private final ThumbnailManifestService thumbnailManifestService;
+    private final StorageBackend storageBackend;
+
+    @Value("${image.storage.root-path}")
+    private String rootPath;
+
+    @Value("${image.transform.size-buckets:64,128,256,320,480,640,800,1024,1280,1600,1920,2560}")
+    private int[] sizeBuckets;
+
+    @Value("${image.transform.cache-max-size:1073741824}")
+    private long cacheMaxSize;
+
+    @Value("${image.transform.secret:}")
+    private String secret;
+
+    // 缓存文件静态路径 -> 文件大小，按访问顺序排列
+    private final LinkedHashMap<String, Long> cacheEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize;
+
+    /**
+     * 正在生成的派生图，key 为缓存文件静态路径
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Arrays.sort(sizeBuckets);
+    }
+
+    /**
+     * 启动后在后台扫描缓存目录，按修改时间近似恢复访问顺序
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reconcile();
+        log.info("派生图缓存加载完成，共 {} 个文件，{} 字节", cacheEntries.size(), cacheSize);
+    }
+
+    /**
+     * 扫描缓存目录与 LRU 清单对账：清单中没有的文件 (其他节点或崩溃前写入的) 按修改时间排在最久未访问的一端，
+     * 已被其他节点删除的文件从清单中移除，之后按容量淘汰
+     */
+    @Scheduled(initialDelayString = "${image.transform.reconcile-interval:3600000}",
+            fixedDelayString = "${image.transform.reconcile-interval:3600000}")
+    public void reconcile() {
+        Path cacheRoot = Paths.get(rootPath, CACHE_DIR);
+        if (!Files.isDirectory(cacheRoot)) {
+            return;
+        }
+        List<Object[]> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(cacheRoot)) {
+            paths.forEach(path -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile() && !path.getFileName().toString().startsWith(".tmp-")) {
+                        String key = ThumbnailManifestService.toStaticPath(path.toString().replace(rootPath, ""));
+                        files.add(new Object[]{key, attributes.lastModifiedTime().toMillis(), attributes.size()});
+                    }
+                } catch (NoSuchFileException e) {
+                    // 扫描期间被删除
+                } catch (IOException e) {
+                    log.warn("读取缓存文件失败: {}", path, e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.error("扫描派生图缓存目录失败", e);
+            return;
+        }
+        files.sort(Comparator.comparingLong(file -> (Long) file[1]));
+        Set<String> found = new HashSet<>(files.size() * 2);
+        files.forEach(file -> found.add((String) file[0]));
+        // 扫描开始后本节点新生成的文件不在扫描结果中，删除前再确认一次
+        List<String> missing;
+        synchronized (cacheEntries) {
+            missing = cacheEntries.keySet().stream().filter(key -> !found.contains(key)).toList();
+        }
+        missing = missing.stream().filter(key -> !Files.exists(Paths.get(rootPath, key))).toList();
+
+        int untracked = 0;
+        synchronized (cacheEntries) {
+            missing.forEach(key -> {
+                Long size = cacheEntries.remove(key);
+                if (size != null) {
+                    cacheSize -= size;
+                }
+            });
+            Map<String, Long> tracked = new LinkedHashMap<>(cacheEntries);
+            cacheEntries.clear();
+            cacheSize = 0;
+            for (Object[] file : files) {
+                if (!tracked.containsKey((String) file[0])) {
+                    cacheEntries.put((String) file[0], (Long) file[2]);
+                    cacheSize += (Long) file[2];
+                    untracked++;
+                }
+            }
+            tracked.forEach((key, size) -> {
+                cacheEntries.put(key, size);
+                cacheSize += size;
+            });
+        }
+        if (untracked > 0 || !missing.isEmpty()) {
+            log.info("派生图缓存对账：补记 {} 个文件，移除 {} 个已删除的文件", untracked, missing.size());
+        }
+        evict();
+    }
+
+    /**
+     * 获取或生成派生图
+     * @param imageId   原图id
+     * @param width 目标宽度，可为空
+     * @param height    目标高度，可为空
+     * @param fit   缩放方式 contain/cover
+     * @param quality   质量 1~100，可为空
+     * @param format    输出格式，null 表示与原图格式一致
+     * @return  派生图或原图的静态路径 (不带前导斜杠)
+     * @throws IOException  异常
+     */
+    public String transform(Long imageId, Integer width, Integer height, String fit, Integer quality, String format) throws IOException {
+        if (width == null && height == null) {
+            throw new IllegalArgumentException("宽度和高度至少指定一个");
+        }
+        if ((width != null && width <= 0) || (height != null && height <= 0)) {
+            throw new IllegalArgumentException("宽度和高度必须为正数");
+        }
+        if (!FIT_CONTAIN.equals(fit) && !FIT_COVER.equals(fit)) {
+            throw new IllegalArgumentException("不支持的缩放方式: " + fit);
+        }
+        Integer w = width == null ? null : bucket(width, sizeBuckets);
+        Integer h = height == null ? null : bucket(height, sizeBuckets);
+        int q = bucket(quality == null ? DEFAULT_QUALITY : quality, QUALITY_BUCKETS);
+        // 只给一边时不需要裁剪
+        String mode = (w == null || h == null) ? FIT_CONTAIN : fit;
+
+        String originalPath = thumbnailManifestService.loadStoragePath(imageId);
+        String extension = format != null ? format : extension(originalPath);
+        if ("jpeg".equals(extension)) {
+            extension = "jpg";
+        }
+        String key = CACHE_DIR + "/" + imageId + "/"
+                + (w == null ? "" : w) + "x" + (h == null ? "" : h) + "_" + mode + "_q" + q + "." + extension;
+        if (touch(key)) {
+            return key;
+        }
+
+        // 已有线程在生成时等待其结果
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException("生成派生图失败", e.getCause());
+            }
+        }
+        try {
+            String result = render(storageBackend.localFile(originalPath), w, h, mode, q, extension, key) ? key : originalPath;
+            flight.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * 校验签名；未配置密钥时不要求签名
+     * @param imageId   原图id
+     * @param width 宽度参数
+     * @param height    高度参数
+     * @param fit   缩放方式参数
+     * @param quality   质量参数
+     * @param signature 请求携带的签名
+     * @return  是否通过
+     */
+    public boolean verify(Long imageId, Integer width, Integer height, String fit, Integer quality, String signature) {
+        if (secret == null || secret.isEmpty()) {
+            return true;
+        }
+        if (signature == null) {
+            return false;
+        }
+        byte[] expected = sign(imageId, width, height, fit, quality).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 计算请求参数的签名 HMAC-SHA256(id/w/h/fit/q)
+     * @param imageId   原图id
+     * @param width 宽度参数
+     * @param height    高度参数
+     * @param fit   缩放方式参数
+     * @param quality   质量参数
+     * @return  十六进制签名，未配置密钥时返回 null
+     */
+    public String sign(Long imageId, Integer width, Integer height, String fit, Integer quality) {
+        if (secret == null || secret.isEmpty()) {
+            return null;
+        }
+        String data = imageId + "/" + (width == null ? "" : width) + "/" + (height == null ? "" : height)
+                + "/" + fit + "/" + (quality == null ? "" : quality);
+        return new HmacUtils(HmacAlgorithms.HMAC_SHA_256, secret).hmacHex(data);
+    }
+
+    /**
+     * 删除原图的全部派生图
+     * @param imageId   原图id
+     */
+    public void evictImage(Long imageId) {
+        String prefix = CACHE_DIR + "/" + imageId + "/";
+        List<String> victims = new ArrayList<>();
+        synchronized (cacheEntries) {
+            Iterator<Map.Entry<String, Long>> iterator = cacheEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    cacheSize -= entry.getValue();
+                    victims.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        victims.forEach(this::deleteQuietly);
+        // 清理尚未记入清单的文件 (启动扫描未完成时生成的) 和目录
+        Path directory = Paths.get(rootPath, prefix);
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> paths = Files.list(directory)) {
+                paths.forEach(path -> deleteQuietly(path.toString().replace(rootPath, "")));
+            } catch (IOException e) {
+                log.warn("清理派生图缓存目录失败: {}", directory, e);
+            }
+            deleteQuietly(prefix);
+        }
+    }
+
+    /**
+     * 解码原图并生成派生图
+     * @return  是否生成了派生图，false 表示原图已满足要求，直接使用原图
+     */
+    private boolean render(Path source, Integer w, Integer h, String mode, int q, String extension, String key) throws IOException {
+        ImageDecodeUtil.ImageHeader header = ImageDecodeUtil.readHeader(source.toFile());
+        if (header == null) {
+            return false;
+        }
+        double scaleX = w == null ? Double.NaN : (double) w / header.width();
+        double scaleY = h == null ? Double.NaN : (double) h / header.height();
+        double scale = FIT_COVER.equals(mode) ? Math.max(scaleX, scaleY)
+                : Double.isNaN(scaleX) ? scaleY : Double.isNaN(scaleY) ? scaleX : Math.min(scaleX, scaleY);
+        // 不放大：等比缩放时原图已在范围内则直接使用原图，裁剪时按原图尺寸缩小裁剪框
+        if (scale >= 1 && FIT_CONTAIN.equals(mode)) {
+            return false;
+        }
+        if (scale > 1) {
+            w = (int) Math.floor(w / scale);
+            h = (int) Math.floor(h / scale);
+            scale = 1;
+        }
+
+        int decodeWidth = Math.min(header.width(), (int) Math.ceil(header.width() * scale) * DECODE_OVERSAMPLE);
+        BufferedImage image = ImageDecodeUtil.readForWidth(source.toFile(), header, Math.max(1, decodeWidth));
+        if (image == null) {
+            return false;
+        }
+        Thumbnails.Builder<BufferedImage> builder = Thumbnails.of(image);
+        if (w == null) {
+            builder.height(h);
+        } else if (h == null) {
+            builder.width(w);
+        } else if (FIT_COVER.equals(mode)) {
+            builder.size(w, h).crop(Positions.CENTER);
+        } else {
+            builder.size(w, h).keepAspectRatio(true);
+        }
+        BufferedImage resized = builder.asBufferedImage();
+
+        Path target = Paths.get(rootPath, key);
+        Files.createDirectories(target.getParent());
+        // 临时文件保留原扩展名，编码器按扩展名选择输出格式
+        Path tempPath = target.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + target.getFileName());
+        try {
+            if (ThumbnailService.WEBP.equals(extension)) {
+                ImageEncodeUtil.writeWebP(resized, tempPath, q / 100f);
+            } else {
+                Thumbnails.of(resized).scale(1).outputQuality(q / 100f).toFile(tempPath.toFile());
+            }
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        record(key, Files.size(target), true);
+        return true;
+    }
+
+    /**
+     * 缓存命中时更新访问顺序；清单中没有但文件存在 (启动扫描尚未完成) 时补记
+     * @param key   缓存文件静态路径
+     * @return  是否命中
+     */
+    private boolean touch(String key) {
+        synchronized (cacheEntries) {
+            if (cacheEntries.get(key) != null) {
+                return true;
+            }
+        }
+        Path path = Paths.get(rootPath, key);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try {
+            record(key, Files.size(path), true);
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录缓存文件
+     * @param key   缓存文件静态路径
+     * @param size  文件大小
+     * @param evict 是否立即按容量淘汰
+     */
+    private void record(String key, long size, boolean evict) {
+        synchronized (cacheEntries) {
+            Long previous = cacheEntries.put(key, size);
+            cacheSize += size - (previous == null ? 0 : previous);
+        }
+        if (evict) {
+            evict();
+        }
+    }
+
+    /**
+     * 淘汰最久未访问的缓存文件直到总大小不超过上限
+     */
+    private void evict() {
+        List<String> victims = new ArrayList<>();
+        synchronized (cacheEntries) {
+            Iterator<Map.Entry<String, Long>> iterator = cacheEntries.entrySet().iterator();
+            while (cacheSize > cacheMaxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                cacheSize -= entry.getValue();
+                victims.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        victims.forEach(this::deleteQuietly);
+    }
+
+    private void deleteQuietly(String key) {
+        try {
+            Files.deleteIfExists(Paths.get(rootPath, key));
+        } catch (IOException e) {
+            log.warn("删除派生图缓存失败: {}", key, e);
+        }
+    }
+
+    /**
+     * 向上取最近的档位，超过最大档位时取最大档位
+     * @param value 请求值
+     * @param buckets   升序档位
+     * @return  档位值
+     */
+    private static int bucket(int value, int[] buckets) {
+        int index = Arrays.binarySearch(buckets, value);
+        if (index >= 0) {
+            return buckets[index];
+        }
+        int insertion = -index - 1;
+        return buckets[Math.min(insertion, buckets.length - 1)];
+    }
+
+    private static String extension(String path) {
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "jpg" : fileName.substring(dot + 1).toLowerCase();
+    }
+}
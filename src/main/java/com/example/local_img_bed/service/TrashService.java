@@ -0,0 +1,70 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.mapper.ImageMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * 回收站过期清理
+ * 删除时间超过 retention-days 天的图片只在 sweep-start-hour 到 sweep-end-hour 之间 (默认凌晨) 清理，
+ * 每 sweep-interval 毫秒最多彻底删除 batch-size 张，文件由 FileReaperService 在后台删除
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class TrashService {
+    private final ImageMapper imageMapper;
+    private final ImageService imageService;
+
+    /**
+     * 回收站保留天数
+     */
+    @Value("${image.trash.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${image.trash.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 清理时段 [start, end) (小时)，开始大于结束时跨越零点，两者相等表示全天
+     */
+    @Value("${image.trash.sweep-start-hour:2}")
+    private int sweepStartHour;
+
+    @Value("${image.trash.sweep-end-hour:6}")
+    private int sweepEndHour;
+
+    /**
+     * 彻底删除一批过期的回收站图片
+     */
+    @Scheduled(initialDelayString = "${image.trash.sweep-initial-delay:60000}",
+            fixedDelayString = "${image.trash.sweep-interval:10000}")
+    public void sweep() {
+        if (!inSweepWindow(LocalTime.now().getHour())) {
+            return;
+        }
+        List<Long> ids = imageMapper.selectTrashedBefore(LocalDateTime.now().minusDays(retentionDays), batchSize);
+        if (ids.isEmpty()) {
+            return;
+        }
+        int purged = imageService.purgeImages(ids);
+        log.info("回收站清理 {} 张过期图片", purged);
+    }
+
+    private boolean inSweepWindow(int hour) {
+        if (sweepStartHour == sweepEndHour) {
+            return true;
+        }
+        if (sweepStartHour < sweepEndHour) {
+            return hour >= sweepStartHour && hour < sweepEndHour;
+        }
+        return hour >= sweepStartHour || hour < sweepEndHour;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.local_img_bed.utils;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * 降分辨率解码
+ * 先从文件头读取尺寸，再选择仍大于目标尺寸的最小解码比例：
+ * JPEG 使用 OpenCV 的 IMREAD_REDUCED_* (libjpeg 在 DCT 阶段直接缩小，省 CPU 也省内存)，
+ * 其他格式使用 ImageIO 的整数倍降采样
+ */
+public class ImageDecodeUtil {
+    /**
+     * OpenCV 支持的缩小倍数及对应的灰度、彩色读取标志
+     */
+    private static final int[] REDUCED_SCALES = {8, 4, 2};
+    private static final int[] REDUCED_GRAY_FLAGS = {
+            Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8, Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4, Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2};
+    private static final int[] REDUCED_COLOR_FLAGS = {
+            Imgcodecs.IMREAD_REDUCED_COLOR_8, Imgcodecs.IMREAD_REDUCED_COLOR_4, Imgcodecs.IMREAD_REDUCED_COLOR_2};
+
+    /**
+     * 图片文件头信息
+     * @param width 宽
+     * @param height    高
+     * @param format    格式名称 (jpeg/png/gif...)
+     */
+    public record ImageHeader(int width, int height, String format) {
+    }
+
+    /**
+     * 只读取文件头中的尺寸和格式，不解码像素
+     * @param file  图片文件
+     * @return  文件头信息，ImageIO 不支持的格式返回 null
+     * @throws IOException  异常
+     */
+    public static ImageHeader readHeader(File file) throws IOException {
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(imageStream);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(imageStream, true, true);
+                return new ImageHeader(reader.getWidth(0), reader.getHeight(0), reader.getFormatName().toLowerCase());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 以灰度降分辨率读取图片，解码结果的最短边不小于 minSide
+     * @param imagePath 图片路径
+     * @param minSide   解码后最短边的最小值
+     * @return  灰度 Mat，无法解码时为空 Mat
+     * @throws IOException  异常
+     */
+    public static Mat readGrayMat(Path imagePath, int minSide) throws IOException {
+        int flag = Imgcodecs.IMREAD_GRAYSCALE;
+        ImageHeader header = readHeader(imagePath.toFile());
+        if (header != null) {
+            int shortSide = Math.min(header.width(), header.height());
+            for (int i = 0; i < REDUCED_SCALES.length; i++) {
+                if (shortSide / REDUCED_SCALES[i] >= minSide) {
+                    flag = REDUCED_GRAY_FLAGS[i];
+                    break;
+                }
+            }
+        }
+        return Imgcodecs.imread(imagePath.toString(), flag);
+    }
+
+    /**
+     * 按目标宽度降分辨率读取图片，解码结果的宽度不小于 minWidth
+     * @param file  图片文件
+     * @param header    文件头信息
+     * @param minWidth  解码后宽度的最小值
+     * @return  解码后的图片，无法解码时返回 null
+     * @throws IOException  异常
+     */
+    public static BufferedImage readForWidth(File file, ImageHeader header, int minWidth) throws IOException {
+        if ("jpeg".equals(header.format())) {
+            for (int i = 0; i < REDUCED_SCALES.length; i++) {
+                if (header.width() / REDUCED_SCALES[i] >= minWidth) {
+                    // 与 ImageIO 保持一致，不按 EXIF 方向旋转
+                    Mat mat = Imgcodecs.imread(file.getPath(), REDUCED_COLOR_FLAGS[i] | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+                    if (!mat.empty()) {
+                        return toBufferedImage(mat);
+                    }
+                    mat.release();
+                    break;
+                }
+            }
+        }
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(file)) {
+            return readSubsampled(imageStream, Math.max(1, header.width() / minWidth));
+        }
+    }
+
+    /**
+     * OpenCV 的 BGR 三通道图转换为 BufferedImage，转换后释放 Mat
+     * @param mat   BGR 图
+     * @return  TYPE_3BYTE_BGR 图片
+     */
+    private static BufferedImage toBufferedImage(Mat mat) {
+        BufferedImage image = new BufferedImage(mat.cols(), mat.rows(), BufferedImage.TYPE_3BYTE_BGR);
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        mat.get(0, 0, pixels);
+        mat.release();
+        return image;
+    }
+
+    /**
+     * ImageIO 降采样解码
+     * @param imageStream   图片流
+     * @param step  降采样步长
+     * @return  解码后的图片，不支持的格式返回 null
+     * @throws IOException  异常
+     */
+    private static BufferedImage readSubsampled(ImageInputStream imageStream, int step) throws IOException {
+        ImageReader reader = readerFor(imageStream);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            reader.setInput(imageStream, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static ImageReader readerFor(ImageInputStream imageStream) {
+        if (imageStream == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+        return readers.hasNext() ? readers.next() : null;
+    }
+}
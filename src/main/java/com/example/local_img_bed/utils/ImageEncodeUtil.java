@@ -0,0 +1,93 @@
+package com.example.local_img_bed.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 图片编码
+ * 使用随 OpenCV 打包的 libwebp 在进程内编码，不依赖外部服务
+ */
+public class ImageEncodeUtil {
+
+    /**
+     * 以有损 WebP 写出图片，带透明通道的图片保留透明度
+     * @param image 图片
+     * @param target    目标文件，扩展名需为 .webp
+     * @param quality   质量 0~1
+     * @throws IOException  异常
+     */
+    public static void writeWebP(BufferedImage image, Path target, float quality) throws IOException {
+        Mat mat = toBgrMat(image);
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_WEBP_QUALITY, Math.max(1, Math.round(quality * 100)));
+        try {
+            if (!Imgcodecs.imwrite(target.toString(), mat, params)) {
+                throw new IOException("WebP 编码失败: " + target);
+            }
+        } finally {
+            mat.release();
+            params.release();
+        }
+    }
+
+    /**
+     * 以有损 WebP 编码到内存
+     * @param image 图片
+     * @param quality   质量 0~1
+     * @return  编码结果
+     * @throws IOException  异常
+     */
+    public static byte[] encodeWebP(BufferedImage image, float quality) throws IOException {
+        Mat mat = toBgrMat(image);
+        MatOfByte buffer = new MatOfByte();
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_WEBP_QUALITY, Math.max(1, Math.round(quality * 100)));
+        try {
+            if (!Imgcodecs.imencode(".webp", mat, buffer, params)) {
+                throw new IOException("WebP 编码失败");
+            }
+            return buffer.toArray();
+        } finally {
+            mat.release();
+            buffer.release();
+            params.release();
+        }
+    }
+
+    /**
+     * 转换为 OpenCV 的 BGR (或带透明通道时 BGRA) 图
+     * @param image 图片
+     * @return  Mat
+     */
+    private static Mat toBgrMat(BufferedImage image) {
+        boolean alpha = image.getColorModel().hasAlpha();
+        int type = alpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
+        BufferedImage converted = image;
+        if (image.getType() != type) {
+            converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+            Graphics2D graphics = converted.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+        byte[] pixels = ((DataBufferByte) converted.getRaster().getDataBuffer()).getData();
+        Mat mat = new Mat(converted.getHeight(), converted.getWidth(), alpha ? CvType.CV_8UC4 : CvType.CV_8UC3);
+        mat.put(0, 0, pixels);
+        if (!alpha) {
+            return mat;
+        }
+        // ABGR 字节序重排为 OpenCV 的 BGRA
+        Mat bgra = new Mat(mat.size(), CvType.CV_8UC4);
+        Core.mixChannels(List.of(mat), List.of(bgra), new MatOfInt(0, 3, 1, 0, 2, 1, 3, 2));
+        mat.release();
+        return bgra;
+    }
+}
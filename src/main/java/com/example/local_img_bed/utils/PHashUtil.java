@@ -0,0 +1,101 @@
+package com.example.local_img_bed.utils;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class PHashUtil {
+    /**
+     * 降采样解码时保留的最短边，远大于 32x32 的计算尺寸，缩放结果与全分辨率解码基本一致
+     */
+    private static final int DECODE_MIN_SIDE = 128;
+
+    /**
+     * 计算图片的感知哈希 (pHash)
+     * @param imagePath 图片文件路径
+     * @return 63 位 pHash，按 DCT 系数从左上到右下依次为高位到低位
+     * @throws IOException 异常
+     */
+    public static long calculatePHash(Path imagePath) throws IOException {
+        // 由 OpenCV 直接以缩小比例读取文件，图片数据不经过 Java 堆
+        Mat img = ImageDecodeUtil.readGrayMat(imagePath, DECODE_MIN_SIDE);
+
+        if (img.empty()) {
+            throw new IOException("无法加载图片或图片为空");
+        }
+        return calculatePHash(img);
+    }
+
+    /**
+     * 对灰度图计算感知哈希，计算完成后释放传入的 Mat
+     * @param img 灰度图
+     * @return 63 位 pHash
+     */
+    private static long calculatePHash(Mat img) {
+        Mat resizedImg = new Mat();
+        Imgproc.resize(img, resizedImg, new Size(32, 32));
+
+        resizedImg.convertTo(resizedImg, CvType.CV_32F);
+
+        Mat dct = new Mat();
+        Core.dct(resizedImg, dct);
+
+        Mat dct8x8 = new Mat(dct, new org.opencv.core.Rect(0, 0, 8, 8));
+        double[][] coefficients = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                coefficients[i][j] = dct8x8.get(i, j)[0];
+            }
+        }
+
+        img.release();
+        resizedImg.release();
+        dct.release();
+        dct8x8.release();
+
+        return packBits(coefficients);
+    }
+
+    /**
+     * 把 8x8 DCT 系数中除直流分量外的 63 个系数与均值比较，按行优先依次写入从高到低的位，
+     * 与迁移前按同样顺序拼接的 '0'/'1' 字符串按二进制解析的结果一致
+     * @param coefficients 8x8 DCT 系数
+     * @return 63 位 pHash
+     */
+    static long packBits(double[][] coefficients) {
+        double total = 0;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                total += coefficients[i][j];
+            }
+        }
+        total -= coefficients[0][0]; // Exclude the DC component
+        double avg = total / (8 * 8 - 1);
+
+        long pHash = 0;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                if (i == 0 && j == 0) {
+                    continue;
+                }
+                pHash = (pHash << 1) | (coefficients[i][j] > avg ? 1 : 0);
+            }
+        }
+        return pHash;
+    }
+
+    /**
+     * 计算两个感知哈希的汉明距离
+     * @param hash1 哈希1
+     * @param hash2 哈希2
+     * @return 汉明距离
+     */
+    public static int hammingDistance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,10 @@
+-- ----------------------------
+-- 感知哈希由 '0'/'1' 字符串改为 64 位整数存储
+-- ----------------------------
+ALTER TABLE `image` ADD COLUMN `p_hash_bits` bigint(20) NULL DEFAULT NULL COMMENT '图像查重hash' AFTER `p_hash`;
+
+UPDATE `image` SET `p_hash_bits` = CAST(CONV(`p_hash`, 2, 10) AS SIGNED) WHERE `p_hash` IS NOT NULL AND `p_hash` <> '';
+
+ALTER TABLE `image` DROP COLUMN `p_hash`;
+
+ALTER TABLE `image` CHANGE COLUMN `p_hash_bits` `p_hash` bigint(20) NULL DEFAULT NULL COMMENT '图像查重hash (64位)';
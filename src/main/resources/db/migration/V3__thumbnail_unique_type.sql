@@ -0,0 +1,7 @@
+-- ----------------------------
+-- 同一原图的同一种略缩图只保留一条记录 (保留最早的一条)
+-- ----------------------------
+DELETE t1 FROM `thumbnail` t1
+    INNER JOIN `thumbnail` t2 ON t1.`original_id` = t2.`original_id` AND t1.`type` = t2.`type` AND t1.`id` > t2.`id`;
+
+ALTER TABLE `thumbnail` ADD UNIQUE INDEX `uk_original_type`(`original_id`, `type`) USING BTREE;
@@ -0,0 +1,10 @@
+-- ----------------------------
+-- 略缩图最近访问时间，用于磁盘配额的最近最少使用淘汰
+-- ----------------------------
+ALTER TABLE `thumbnail` ADD COLUMN `last_access_time` datetime NULL DEFAULT NULL COMMENT '最近访问时间' AFTER `create_time`;
+
+UPDATE `thumbnail` SET `last_access_time` = `create_time`;
+
+ALTER TABLE `thumbnail` MODIFY COLUMN `last_access_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '最近访问时间';
+
+ALTER TABLE `thumbnail` ADD INDEX `idx_last_access`(`last_access_time`) USING BTREE;
@@ -0,0 +1,15 @@
+-- ----------------------------
+-- 原图存储层级 (0 高速层, 1 容量层) 和最近访问时间，用于冷热分层迁移
+-- ----------------------------
+ALTER TABLE `image` ADD COLUMN `tier` tinyint NOT NULL DEFAULT 0 COMMENT '存储层级 0 高速层 1 容量层' AFTER `p_hash`;
+
+ALTER TABLE `image` ADD COLUMN `last_access_time` datetime NULL DEFAULT NULL COMMENT '原图最近访问时间' AFTER `create_time`;
+
+UPDATE `image` SET `last_access_time` = `create_time`;
+
+ALTER TABLE `image` MODIFY COLUMN `last_access_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '原图最近访问时间';
+
+ALTER TABLE `image` ADD INDEX `idx_tier_last_access`(`tier`, `last_access_time`) USING BTREE;
+
+-- 按路径批量更新访问时间 (静态地址只包含路径)
+ALTER TABLE `image` ADD INDEX `idx_storage_path`(`storage_path`(191)) USING BTREE;
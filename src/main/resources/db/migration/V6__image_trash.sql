@@ -0,0 +1,12 @@
+-- ----------------------------
+-- 回收站：删除图片时只记录删除时间，保留期过后由定时任务彻底删除记录和文件
+-- ----------------------------
+ALTER TABLE `image` ADD COLUMN `deleted_at` datetime NULL DEFAULT NULL COMMENT '移入回收站的时间，NULL 表示未删除' AFTER `last_access_time`;
+
+-- 分类分页、随机图按分类过滤已删除的图片；先建新索引再删除旧索引，外键始终有可用的索引
+ALTER TABLE `image` ADD INDEX `idx_category_deleted`(`category_id`, `deleted_at`) USING BTREE;
+
+ALTER TABLE `image` DROP INDEX `idx_category`;
+
+-- 最近上传、回收站列表及过期清理
+ALTER TABLE `image` ADD INDEX `idx_deleted_create`(`deleted_at`, `create_time`) USING BTREE;
@@ -0,0 +1,68 @@
+package com.example.local_img_bed.config;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 迁移脚本按版本号数值顺序执行，只执行高于当前版本的脚本
+ */
+class DatabaseInitializerTest {
+    private static final String RECORD = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+
+    @Test
+    void appliesPendingMigrationsInVersionOrder() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject("SELECT 1 FROM category LIMIT 1", Integer.class)).thenReturn(1);
+        when(jdbcTemplate.queryForObject("SELECT MAX(version) FROM schema_version", Integer.class)).thenReturn(3);
+
+        new DatabaseInitializer(jdbcTemplate).run();
+
+        InOrder order = inOrder(jdbcTemplate);
+        for (String script : new String[]{"V4__thumbnail_last_access.sql", "V5__image_storage_tier.sql", "V6__image_trash.sql"}) {
+            order.verify(jdbcTemplate).execute(any(ConnectionCallback.class));
+            order.verify(jdbcTemplate).update(RECORD, Integer.parseInt(script.substring(1, 2)), script);
+        }
+        verify(jdbcTemplate, times(3)).execute(any(ConnectionCallback.class));
+        verify(jdbcTemplate, never()).update(eq(RECORD), eq(2), anyString());
+        verify(jdbcTemplate, never()).update(eq(RECORD), eq(3), anyString());
+    }
+
+    @Test
+    void recordsInitialVersionOnFirstRun() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject("SELECT 1 FROM category LIMIT 1", Integer.class)).thenReturn(1);
+        when(jdbcTemplate.queryForObject("SELECT MAX(version) FROM schema_version", Integer.class)).thenReturn(null);
+
+        new DatabaseInitializer(jdbcTemplate).run();
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).update("INSERT INTO schema_version (version, description) VALUES (1, 'initial schema')");
+        order.verify(jdbcTemplate).update(RECORD, 2, "V2__phash_bigint.sql");
+        order.verify(jdbcTemplate).update(RECORD, 6, "V6__image_trash.sql");
+        verify(jdbcTemplate, times(5)).execute(any(ConnectionCallback.class));
+    }
+
+    @Test
+    void skipsWhenUpToDate() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject("SELECT 1 FROM category LIMIT 1", Integer.class)).thenReturn(1);
+        when(jdbcTemplate.queryForObject("SELECT MAX(version) FROM schema_version", Integer.class)).thenReturn(6);
+
+        new DatabaseInitializer(jdbcTemplate).run();
+
+        verify(jdbcTemplate, never()).execute(any(ConnectionCallback.class));
+        verify(jdbcTemplate, never()).update(eq(RECORD), any(Object[].class));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.local_img_bed.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.example.local_img_bed.dto.BatchUploadResultDTO;
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 批量上传的多行插入，以及唯一键冲突后逐行插入的回退
+ */
+class BatchUploadServiceTest {
+    @TempDir
+    Path directory;
+
+    private ImageService imageService;
+    private ImageMapper imageMapper;
+    private ImageProcessingService imageProcessingService;
+    private ThreadPoolTaskExecutor executor;
+    private BatchUploadService service;
+    private final AtomicLong ids = new AtomicLong(100);
+
+    @BeforeAll
+    static void initTableInfo() {
+        // LambdaQueryWrapper 解析列名需要实体的表信息
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Image.class);
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        imageService = mock(ImageService.class);
+        imageMapper = mock(ImageMapper.class);
+        imageProcessingService = mock(ImageProcessingService.class);
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        when(imageService.stageUpload(any())).thenAnswer(invocation -> {
+            InputStream inputStream = invocation.getArgument(0);
+            byte[] data = inputStream.readAllBytes();
+            Path staged = Files.write(Files.createTempFile(directory, "upload-", ".part"), data);
+            return new ImageService.StagedFile(staged, DigestUtils.sha256Hex(data), data.length);
+        });
+        when(imageService.saveOriginalFile(any(), anyString(), anyString(), any())).thenAnswer(invocation -> {
+            ImageService.StagedFile staged = invocation.getArgument(0);
+            Image image = new Image();
+            image.setOriginalName(invocation.getArgument(1));
+            image.setHash(staged.hash());
+            image.setStoragePath("/original/" + staged.hash());
+            return image;
+        });
+        when(imageMapper.selectList(any())).thenReturn(List.of());
+        service = new BatchUploadService(imageService, imageMapper, imageProcessingService, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void insertsNewFilesInOneBatch() throws IOException {
+        when(imageMapper.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<Image> images = invocation.getArgument(0);
+            images.forEach(image -> image.setId(ids.incrementAndGet()));
+            return images.size();
+        });
+
+        List<BatchUploadResultDTO> results = service.uploadImages(List.of(file("a.jpg", "a"), file("b.jpg", "b"), file("c.jpg", "a")), 1L);
+
+        assertThat(results).extracting(BatchUploadResultDTO::getSuccess).containsExactly(true, true, true);
+        assertThat(results).extracting(BatchUploadResultDTO::getDuplicate).containsExactly(false, false, true);
+        // 批次内重复的文件指向第一次出现的图片
+        assertThat(results.get(2).getId()).isEqualTo(results.get(0).getId());
+        verify(imageMapper, times(1)).insertBatch(argThat(list -> list.size() == 2));
+        verify(imageMapper, never()).insert(any(Image.class));
+        verify(imageProcessingService, times(2)).submit(anyLong());
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    @Test
+    void fallsBackToRowInsertsAndIsolatesFailures() throws IOException {
+        when(imageMapper.insertBatch(anyList())).thenThrow(new DuplicateKeyException("uk_hash"));
+        when(imageMapper.insert(any(Image.class))).thenAnswer(invocation -> {
+            Image image = invocation.getArgument(0);
+            switch (image.getOriginalName()) {
+                case "dup.jpg" -> throw new DuplicateKeyException("uk_hash");
+                case "bad.jpg" -> throw new DataIntegrityViolationException("Data too long");
+                default -> image.setId(ids.incrementAndGet());
+            }
+            return 1;
+        });
+        Image winner = new Image();
+        winner.setId(7L);
+        when(imageMapper.selectOne(any())).thenReturn(winner);
+
+        List<BatchUploadResultDTO> results = service.uploadImages(
+                List.of(file("ok.jpg", "1"), file("dup.jpg", "2"), file("bad.jpg", "3"), file("ok2.jpg", "4")), 1L);
+
+        // 并发上传先入库的图片按重复处理
+        assertThat(results.get(1).getDuplicate()).isTrue();
+        assertThat(results.get(1).getSuccess()).isTrue();
+        assertThat(results.get(1).getId()).isEqualTo(7L);
+        // 其他错误只让该行失败，后面的行继续插入
+        assertThat(results.get(2).getSuccess()).isFalse();
+        assertThat(results.get(2).getMessage()).contains("Data too long");
+        assertThat(results.get(0).getSuccess()).isTrue();
+        assertThat(results.get(3).getSuccess()).isTrue();
+        assertThat(results.get(3).getId()).isNotNull();
+
+        verify(imageService).deleteOriginalFile(argThat(image -> "dup.jpg".equals(image.getOriginalName())));
+        verify(imageService).deleteOriginalFile(argThat(image -> "bad.jpg".equals(image.getOriginalName())));
+        verify(imageService, times(2)).deleteOriginalFile(any());
+        verify(imageProcessingService, times(2)).submit(anyLong());
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    @Test
+    void batchFailureCleansUpEveryStoredOriginal() throws IOException {
+        when(imageMapper.insertBatch(anyList())).thenThrow(new DataIntegrityViolationException("connection lost"));
+
+        List<BatchUploadResultDTO> results = service.uploadImages(List.of(file("a.jpg", "a"), file("b.jpg", "b")), 1L);
+
+        assertThat(results).extracting(BatchUploadResultDTO::getSuccess).containsExactly(false, false);
+        verify(imageService, times(2)).deleteOriginalFile(any());
+        verify(imageProcessingService, never()).submit(anyLong());
+    }
+
+    private static MultipartFile file(String name, String content) {
+        return new MockMultipartFile("files", name, "image/jpeg", content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.local_img_bed.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 内容文件的硬链接数即引用计数：相同内容只保存一份，最后一个引用删除后内容文件一并删除
+ */
+class BlobStoreServiceTest {
+    private static final String HASH = "ab12cd34";
+
+    @TempDir
+    Path rootPath;
+
+    private BlobStoreService service;
+
+    @BeforeEach
+    void setUp() {
+        StorageBackend storageBackend = mock(StorageBackend.class);
+        when(storageBackend.isLocal()).thenReturn(true);
+        service = new BlobStoreService(storageBackend);
+        ReflectionTestUtils.setField(service, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(service, "enabled", true);
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() throws IOException {
+        Path first = target("a.jpg");
+        Path second = target("b.jpg");
+        store(first);
+        store(second);
+
+        Path blob = service.blobPath(HASH);
+        assertThat(blob).isEqualTo(rootPath.resolve("blobs/ab/12/" + HASH));
+        assertThat(Files.isSameFile(first, blob)).isTrue();
+        assertThat(Files.isSameFile(second, blob)).isTrue();
+        assertThat(links(blob)).isEqualTo(3);
+    }
+
+    @Test
+    void existingBlobIsNotReplaced() throws IOException {
+        Path first = target("a.jpg");
+        store(first);
+        Path blob = service.blobPath(HASH);
+        Object inode = Files.getAttribute(blob, "unix:ino");
+
+        store(target("b.jpg"));
+
+        // 后到的临时文件不会替换已发布的内容文件，第一个引用仍指向内容文件
+        assertThat(Files.getAttribute(blob, "unix:ino")).isEqualTo(inode);
+        assertThat(Files.isSameFile(first, blob)).isTrue();
+    }
+
+    @Test
+    void concurrentIdenticalStoresShareOneBlob() throws Exception {
+        int threads = 8;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Path> targets = new ArrayList<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Path target = target(i + ".jpg");
+                Path staged = staged(i);
+                targets.add(target);
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    service.store(staged, HASH, target);
+                    Files.delete(staged);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Path blob = service.blobPath(HASH);
+        for (Path target : targets) {
+            assertThat(Files.isSameFile(target, blob)).isTrue();
+        }
+        assertThat(links(blob)).isEqualTo(threads + 1);
+    }
+
+    @Test
+    void releaseDeletesBlobWithLastReference() throws IOException {
+        Path first = target("a.jpg");
+        Path second = target("b.jpg");
+        store(first);
+        store(second);
+        Path blob = service.blobPath(HASH);
+
+        service.release(first, HASH);
+        assertThat(first).doesNotExist();
+        assertThat(blob).exists();
+        assertThat(links(blob)).isEqualTo(2);
+
+        service.release(second, HASH);
+        assertThat(second).doesNotExist();
+        assertThat(blob).doesNotExist();
+
+        // 内容文件删除后可以重新发布
+        Path third = target("c.jpg");
+        store(third);
+        assertThat(Files.isSameFile(third, blob)).isTrue();
+    }
+
+    @Test
+    void adoptReplacesDuplicatesWithLinks() throws IOException {
+        Path first = Files.write(Files.createDirectories(rootPath.resolve("original")).resolve("a.jpg"),
+                "content".getBytes(StandardCharsets.UTF_8));
+        Path second = Files.write(rootPath.resolve("original/b.jpg"), "content".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(service.adopt(first, HASH)).isFalse();
+        assertThat(service.adopt(second, HASH)).isTrue();
+        assertThat(service.adopt(second, HASH)).isFalse();
+
+        Path blob = service.blobPath(HASH);
+        assertThat(Files.isSameFile(first, blob)).isTrue();
+        assertThat(Files.isSameFile(second, blob)).isTrue();
+        assertThat(Files.readString(second)).isEqualTo("content");
+        assertThat(links(blob)).isEqualTo(3);
+    }
+
+    private void store(Path target) throws IOException {
+        Path staged = staged(0);
+        service.store(staged, HASH, target);
+        Files.delete(staged);
+    }
+
+    private Path staged(int n) throws IOException {
+        Path tmp = Files.createDirectories(rootPath.resolve("tmp"));
+        return Files.write(Files.createTempFile(tmp, "upload-" + n + "-", ".part"), "content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path target(String name) {
+        return rootPath.resolve("original/2024/01/01").resolve(name);
+    }
+
+    private static int links(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.dto.ChunkUploadInitDTO;
+import com.example.local_img_bed.dto.ChunkUploadStatusDTO;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 分片以任意顺序到达时，增量计算的 SHA-256 与整个文件的摘要一致
+ */
+class ChunkUploadServiceTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    @TempDir
+    Path rootPath;
+
+    private ImageService imageService;
+    private ChunkUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        imageService = mock(ImageService.class);
+        service = new ChunkUploadService(imageService);
+        ReflectionTestUtils.setField(service, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(service, "maxChunkSize", CHUNK_SIZE);
+        ReflectionTestUtils.setField(service, "maxFileSize", 1_000_000L);
+        ReflectionTestUtils.setField(service, "maxSessions", 2);
+    }
+
+    @Test
+    void outOfOrderChunksProduceWholeFileDigest() throws IOException {
+        byte[] data = randomBytes(10_500, 1);
+        String uploadId = service.init(init(data.length)).getUploadId();
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(5));
+        // 第 0 片最后到达，其余分片都要从文件读回计入摘要
+        order.remove(Integer.valueOf(0));
+        order.add(0);
+        ChunkUploadStatusDTO status = null;
+        for (int index : order) {
+            status = putChunk(uploadId, index, data);
+            // 重复发送的分片被忽略
+            putChunk(uploadId, index, data);
+        }
+        assertThat(status.getComplete()).isTrue();
+
+        assertStaged(uploadId, data);
+    }
+
+    @Test
+    void concurrentChunksProduceWholeFileDigest() throws Exception {
+        byte[] data = randomBytes(64 * CHUNK_SIZE + 1, 2);
+        String uploadId = service.init(init(data.length)).getUploadId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 64; i >= 0; i--) {
+                int index = i;
+                futures.add(executor.submit(() -> putChunk(uploadId, index, data)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertStaged(uploadId, data);
+    }
+
+    @Test
+    void completeRequiresEveryChunk() throws IOException {
+        byte[] data = randomBytes(3 * CHUNK_SIZE, 3);
+        String uploadId = service.init(init(data.length)).getUploadId();
+        putChunk(uploadId, 0, data);
+        putChunk(uploadId, 2, data);
+
+        assertThatThrownBy(() -> service.complete(uploadId)).isInstanceOf(IllegalStateException.class);
+        assertThat(service.getStatus(uploadId).getReceivedChunks()).containsExactly(0, 2);
+    }
+
+    @Test
+    void rejectsWrongChunkLength() throws IOException {
+        byte[] data = randomBytes(2 * CHUNK_SIZE + 10, 4);
+        String uploadId = service.init(init(data.length)).getUploadId();
+
+        assertThatThrownBy(() -> service.putChunk(uploadId, 2, new ByteArrayInputStream(new byte[CHUNK_SIZE])))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.putChunk(uploadId, 3, new ByteArrayInputStream(new byte[10])))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void limitsFileSizeAndSessions() throws IOException {
+        assertThatThrownBy(() -> service.init(init(1_000_001L))).isInstanceOf(IllegalArgumentException.class);
+
+        service.init(init(10));
+        String second = service.init(init(10)).getUploadId();
+        assertThatThrownBy(() -> service.init(init(10))).isInstanceOf(IllegalStateException.class);
+
+        service.abort(second);
+        assertThat(service.init(init(10)).getUploadId()).isNotNull();
+    }
+
+    @Test
+    void rejectsDuplicateChunkWhileFirstIsWriting() throws Exception {
+        byte[] data = randomBytes(2 * CHUNK_SIZE, 5);
+        String uploadId = service.init(init(data.length)).getUploadId();
+
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] first = Arrays.copyOfRange(data, 0, CHUNK_SIZE);
+        InputStream slow = new FilterInputStream(new ByteArrayInputStream(first)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.read(b, off, len);
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ChunkUploadStatusDTO> original = executor.submit(() -> service.putChunk(uploadId, 0, slow));
+            reading.await();
+
+            // 重试请求与原请求并发时被拒绝，不会覆盖正在写入的内容
+            assertThatThrownBy(() -> putChunk(uploadId, 0, data)).isInstanceOf(IllegalStateException.class);
+            release.countDown();
+            assertThat(original.get().getReceivedChunks()).containsExactly(0);
+        } finally {
+            executor.shutdown();
+        }
+        // 已接收的分片再次上传直接返回状态
+        assertThat(putChunk(uploadId, 0, data).getReceivedChunks()).containsExactly(0);
+        putChunk(uploadId, 1, data);
+
+        assertStaged(uploadId, data);
+    }
+
+    @Test
+    void failedChunkCanBeRetried() throws IOException {
+        byte[] data = randomBytes(2 * CHUNK_SIZE, 6);
+        String uploadId = service.init(init(data.length)).getUploadId();
+
+        assertThatThrownBy(() -> service.putChunk(uploadId, 0, new ByteArrayInputStream(new byte[10])))
+                .isInstanceOf(IllegalArgumentException.class);
+        putChunk(uploadId, 0, data);
+        putChunk(uploadId, 1, data);
+
+        assertStaged(uploadId, data);
+    }
+
+    @Test
+    void removesOnlyExpiredOrphanedPartsOnStartup() throws IOException {
+        ReflectionTestUtils.setField(service, "chunkExpireMinutes", 60L);
+        Path chunkDir = Files.createDirectories(rootPath.resolve("tmp").resolve("chunks"));
+        Path orphan = Files.write(chunkDir.resolve("abc.part"), new byte[10]);
+        Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 61 * 60_000));
+        // 其他节点进行中的上传
+        Path live = Files.write(chunkDir.resolve("def.part"), new byte[10]);
+        Path other = Files.write(chunkDir.resolve("keep.txt"), new byte[10]);
+        Files.setLastModifiedTime(other, FileTime.fromMillis(0));
+
+        service.cleanupOrphanedParts();
+
+        assertThat(orphan).doesNotExist();
+        assertThat(live).exists();
+        assertThat(other).exists();
+    }
+
+    private void assertStaged(String uploadId, byte[] data) throws IOException {
+        service.complete(uploadId);
+        ArgumentCaptor<ImageService.StagedFile> staged = ArgumentCaptor.forClass(ImageService.StagedFile.class);
+        verify(imageService).storeStagedFile(staged.capture(), eq("a.jpg"), eq("image/jpeg"), any());
+
+        assertThat(staged.getValue().hash()).isEqualTo(DigestUtils.sha256Hex(data));
+        assertThat(staged.getValue().size()).isEqualTo(data.length);
+        assertThat(Files.readAllBytes(staged.getValue().path())).isEqualTo(data);
+    }
+
+    private ChunkUploadStatusDTO putChunk(String uploadId, int index, byte[] data) throws IOException {
+        int from = index * CHUNK_SIZE;
+        byte[] chunk = Arrays.copyOfRange(data, from, Math.min(from + CHUNK_SIZE, data.length));
+        return service.putChunk(uploadId, index, new ByteArrayInputStream(chunk));
+    }
+
+    private static ChunkUploadInitDTO init(long fileSize) {
+        ChunkUploadInitDTO init = new ChunkUploadInitDTO();
+        init.setFileName("a.jpg");
+        init.setContentType("image/jpeg");
+        init.setFileSize(fileSize);
+        init.setChunkSize(CHUNK_SIZE);
+        return init;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
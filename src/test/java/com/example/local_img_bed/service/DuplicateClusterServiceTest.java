@@ -0,0 +1,183 @@
+package com.example.local_img_bed.service;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.example.local_img_bed.dto.DuplicateGroupDTO;
+import com.example.local_img_bed.dto.ImageDTO;
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 分段桶对比较加并查集得到的分组，与两两比较后求连通分量的结果一致
+ */
+class DuplicateClusterServiceTest {
+    private final Map<Long, Image> images = new HashMap<>();
+    private SimilarityIndexService similarityIndexService;
+    private DuplicateClusterService service;
+
+    @BeforeAll
+    static void initTableInfo() {
+        // LambdaQueryWrapper 解析列名需要实体的表信息
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Image.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        similarityIndexService = mock(SimilarityIndexService.class);
+        ImageMapper imageMapper = mock(ImageMapper.class);
+        ImageService imageService = mock(ImageService.class);
+        when(imageMapper.selectList(any())).thenAnswer(invocation -> new ArrayList<>(images.values()));
+        when(imageService.listByIdsInOrder(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            return ids.stream().map(id -> {
+                ImageDTO dto = new ImageDTO();
+                dto.setId(id);
+                return dto;
+            }).toList();
+        });
+        service = new DuplicateClusterService(similarityIndexService, imageMapper, imageService);
+        ReflectionTestUtils.setField(service, "parallelism", 4);
+    }
+
+    @Test
+    void groupsMatchConnectedComponents() throws InterruptedException {
+        Random random = new Random(3);
+        long[] centers = new long[200];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextLong() >>> 1;
+        }
+        int n = 5000;
+        long[] ids = new long[n];
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++) {
+            long pHash = centers[random.nextInt(centers.length)];
+            int flips = random.nextInt(12);
+            for (int f = 0; f < flips; f++) {
+                pHash ^= 1L << random.nextInt(63);
+            }
+            ids[i] = i + 1;
+            hashes[i] = pHash;
+            image(ids[i], random.nextInt(1000), null);
+        }
+        when(similarityIndexService.snapshot()).thenReturn(new long[][]{ids, hashes});
+
+        for (int threshold : new int[]{0, 5, 8}) {
+            scan(threshold);
+            assertThat(groups()).as("threshold %d", threshold).isEqualTo(bruteForce(ids, hashes, threshold));
+        }
+    }
+
+    @Test
+    void keepsLargestThenOldestAndSortsByReclaimable() throws InterruptedException {
+        LocalDateTime now = LocalDateTime.now();
+        image(1, 100, now);
+        image(2, 300, now.minusDays(1));
+        image(3, 300, now.minusDays(2));
+        image(4, 50, now);
+        image(5, 1000, now);
+        image(6, 10, now);
+        long base = 0x1234_5678_9ABCL;
+        when(similarityIndexService.snapshot()).thenReturn(new long[][]{
+                {1, 2, 3, 4, 5, 6},
+                {base, base ^ 1, base ^ 3, base ^ (0xFFFFL << 40), base ^ (0xFFFFL << 40) ^ 4, Long.MAX_VALUE}});
+
+        scan(4);
+        IPage<DuplicateGroupDTO> page = service.getGroups(1, 10);
+
+        assertThat(page.getTotal()).isEqualTo(2);
+        DuplicateGroupDTO first = page.getRecords().get(0);
+        assertThat(first.getKeeperId()).isEqualTo(3L);
+        assertThat(first.getImages()).extracting(ImageDTO::getId).containsExactly(3L, 2L, 1L);
+        assertThat(first.getTotalSize()).isEqualTo(700);
+        assertThat(first.getReclaimableSize()).isEqualTo(400);
+
+        DuplicateGroupDTO second = page.getRecords().get(1);
+        assertThat(second.getKeeperId()).isEqualTo(5L);
+        assertThat(second.getReclaimableSize()).isEqualTo(50);
+    }
+
+    @Test
+    void rejectsThresholdOutOfRange() {
+        assertThatThrownBy(() -> service.startScan(21)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.startScan(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void scan(int threshold) throws InterruptedException {
+        service.startScan(threshold);
+        AtomicBoolean running = (AtomicBoolean) ReflectionTestUtils.getField(service, "running");
+        long deadline = System.currentTimeMillis() + 30000;
+        while (running.get()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        assertThat(service.getStatus().getState()).isEqualTo("DONE");
+    }
+
+    private Set<Set<Long>> groups() {
+        Set<Set<Long>> result = new HashSet<>();
+        for (DuplicateGroupDTO group : service.getGroups(1, Integer.MAX_VALUE / 2).getRecords()) {
+            result.add(new HashSet<>(group.getImages().stream().map(ImageDTO::getId).toList()));
+        }
+        return result;
+    }
+
+    private static Set<Set<Long>> bruteForce(long[] ids, long[] hashes, int threshold) {
+        int n = ids.length;
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (Long.bitCount(hashes[i] ^ hashes[j]) <= threshold) {
+                    parent[root(parent, i)] = root(parent, j);
+                }
+            }
+        }
+        Map<Integer, Set<Long>> components = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            components.computeIfAbsent(root(parent, i), k -> new HashSet<>()).add(ids[i]);
+        }
+        Set<Set<Long>> result = new HashSet<>();
+        components.values().stream().filter(component -> component.size() > 1).forEach(result::add);
+        return result;
+    }
+
+    private static int root(int[] parent, int x) {
+        while (parent[x] != x) {
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private void image(long id, long fileSize, LocalDateTime createTime) {
+        Image image = new Image();
+        image.setId(id);
+        image.setFileSize(fileSize);
+        image.setCreateTime(createTime);
+        images.put(id, image);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 文件在事务提交后由后台线程删除，失败时重试
+ */
+class FileReaperServiceTest {
+
+    @TempDir
+    Path rootPath;
+
+    private BlobStoreService blobStoreService;
+    private StorageBackend storageBackend;
+    private TransformService transformService;
+    private FileReaperService service;
+
+    @BeforeEach
+    void setUp() {
+        blobStoreService = mock(BlobStoreService.class);
+        storageBackend = mock(StorageBackend.class);
+        transformService = mock(TransformService.class);
+        service = new FileReaperService(blobStoreService, storageBackend, transformService);
+        ReflectionTestUtils.setField(service, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(service, "maxRetries", 2);
+        ReflectionTestUtils.setField(service, "retryDelay", 10L);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void removesOriginalsAndThumbnailsInBackground() throws IOException, InterruptedException {
+        Path thumbnail = Files.write(rootPath.resolve("1_small.jpg"), new byte[1]);
+        Image image = image(1L);
+
+        service.submit(List.of(image), List.of(File.separator + "1_small.jpg", volumePath()));
+        service.shutdown();
+
+        assertThat(thumbnail).doesNotExist();
+        verify(storageBackend).delete("original/1.jpg");
+        verify(transformService).evictImage(1L);
+        verify(blobStoreService, never()).release(any(), anyString());
+    }
+
+    @Test
+    void waitsForCommitInsideTransaction() throws IOException, InterruptedException {
+        TransactionSynchronizationManager.initSynchronization();
+        service.submit(List.of(image(1L)), List.of());
+        Thread.sleep(50);
+        verify(storageBackend, never()).delete(anyString());
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        verify(storageBackend, timeout(5000)).delete("original/1.jpg");
+    }
+
+    @Test
+    void releasesBlobWhenContentAddressed() throws IOException, InterruptedException {
+        when(blobStoreService.isEnabled()).thenReturn(true);
+
+        service.submit(List.of(image(1L)), List.of());
+        service.shutdown();
+
+        verify(blobStoreService).release(rootPath.resolve("original").resolve("1.jpg"), "hash1");
+    }
+
+    @Test
+    void retriesFailedDeletes() throws IOException {
+        doThrow(new IOException("busy")).doNothing().when(storageBackend).delete("original/1.jpg");
+
+        service.submit(List.of(image(1L)), List.of());
+
+        verify(storageBackend, timeout(5000).times(2)).delete("original/1.jpg");
+        // 派生图缓存只在第一次清理
+        verify(transformService, times(1)).evictImage(1L);
+    }
+
+    private static String volumePath() {
+        return File.separator + String.join(File.separator, "volumes", "000001", "0", "10.webp");
+    }
+
+    private static Image image(Long id) {
+        Image image = new Image();
+        image.setId(id);
+        image.setStoragePath(File.separator + "original" + File.separator + id + ".jpg");
+        image.setHash("hash" + id);
+        return image;
+    }
+}
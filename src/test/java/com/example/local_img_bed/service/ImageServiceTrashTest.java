@@ -0,0 +1,159 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.CategoryMapper;
+import com.example.local_img_bed.mapper.ImageMapper;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 移入回收站、还原和彻底删除：事务中只改数据库，内存索引和文件在提交后处理
+ */
+class ImageServiceTrashTest {
+    private ImageMapper imageMapper;
+    private ThumbnailMapper thumbnailMapper;
+    private SimilarityIndexService similarityIndexService;
+    private ThumbnailManifestService manifest;
+    private FileReaperService fileReaperService;
+    private ImageService service;
+
+    @BeforeEach
+    void setUp() {
+        imageMapper = mock(ImageMapper.class);
+        thumbnailMapper = mock(ThumbnailMapper.class);
+        similarityIndexService = mock(SimilarityIndexService.class);
+        manifest = mock(ThumbnailManifestService.class);
+        fileReaperService = mock(FileReaperService.class);
+        service = new ImageService(imageMapper, mock(CategoryMapper.class), mock(ThumbnailService.class), thumbnailMapper,
+                mock(CategoryService.class), mock(ImageProcessingService.class), similarityIndexService, manifest,
+                mock(ThumbnailEvictionService.class), mock(BlobStoreService.class), mock(StorageBackend.class),
+                fileReaperService);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void deleteTrashesLiveImagesAndUpdatesIndexAfterCommit() {
+        Image trashed = image(2L);
+        trashed.setDeletedAt(LocalDateTime.now());
+        when(imageMapper.selectFilesByIds(List.of(1L, 2L))).thenReturn(List.of(image(1L), trashed));
+
+        service.deleteImages(List.of(1L, 2L, 1L));
+
+        verify(imageMapper).trashByIds(eq(List.of(1L)), any());
+        verify(similarityIndexService, never()).remove(anyLong());
+        verify(manifest, never()).remove(anyLong());
+
+        commit();
+
+        verify(similarityIndexService).remove(1L);
+        verify(manifest).remove(1L);
+        verify(similarityIndexService, never()).remove(2L);
+        // 文件保留到彻底删除
+        verify(fileReaperService, never()).submit(anyCollection(), anyCollection());
+    }
+
+    @Test
+    void rolledBackDeleteKeepsIndex() {
+        when(imageMapper.selectFilesByIds(List.of(1L))).thenReturn(List.of(image(1L)));
+
+        service.deleteImages(List.of(1L));
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        verify(similarityIndexService, never()).remove(anyLong());
+        verify(manifest, never()).remove(anyLong());
+    }
+
+    @Test
+    void deleteSplitsLargeRequestsIntoBatches() {
+        List<Long> ids = LongStream.rangeClosed(1, 2500).boxed().toList();
+        when(imageMapper.selectFilesByIds(anyList())).thenReturn(List.of());
+
+        service.deleteImages(ids);
+
+        verify(imageMapper).selectFilesByIds(ids.subList(0, 1000));
+        verify(imageMapper).selectFilesByIds(ids.subList(1000, 2000));
+        verify(imageMapper).selectFilesByIds(ids.subList(2000, 2500));
+        verify(imageMapper, never()).trashByIds(anyCollection(), any());
+    }
+
+    @Test
+    void restoreAddsImagesBackAfterCommit() {
+        when(imageMapper.restoreByIds(List.of(1L, 2L))).thenReturn(1);
+        Image stillTrashed = image(2L);
+        stillTrashed.setDeletedAt(LocalDateTime.now());
+        when(imageMapper.selectFilesByIds(List.of(1L, 2L))).thenReturn(List.of(image(1L), stillTrashed));
+
+        assertThat(service.restoreImages(List.of(1L, 2L))).isEqualTo(1);
+        verify(similarityIndexService, never()).add(anyLong(), anyLong());
+
+        commit();
+
+        verify(similarityIndexService).add(1L, 100L);
+        verify(similarityIndexService, never()).add(eq(2L), anyLong());
+    }
+
+    @Test
+    void purgeDeletesRowsAndHandsFilesToReaper() {
+        Image image = image(1L);
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setStoragePath("/thumbnails/1_small.jpg");
+        when(imageMapper.selectTrashedForUpdate(List.of(1L, 2L))).thenReturn(List.of(image));
+        when(thumbnailMapper.selectByOriginalIds(List.of(1L))).thenReturn(List.of(thumbnail));
+
+        assertThat(service.purgeImages(List.of(1L, 2L))).isEqualTo(1);
+
+        verify(thumbnailMapper).deleteByOriginalIds(List.of(1L));
+        verify(imageMapper).deleteBatchIds(List.of(1L));
+        verify(fileReaperService).submit(List.of(image), List.of("/thumbnails/1_small.jpg"));
+    }
+
+    @Test
+    void purgeIgnoresImagesNotInTrash() {
+        when(imageMapper.selectTrashedForUpdate(anyList())).thenReturn(List.of());
+
+        assertThat(service.purgeImages(List.of(1L))).isZero();
+
+        verify(imageMapper, never()).deleteBatchIds(anyList());
+        verify(fileReaperService, times(0)).submit(anyCollection(), anyCollection());
+    }
+
+    private static void commit() {
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    }
+
+    private static Image image(Long id) {
+        Image image = new Image();
+        image.setId(id);
+        image.setStoragePath("/original/" + id + ".jpg");
+        image.setHash("hash" + id);
+        image.setPHash(100L);
+        return image;
+    }
+}
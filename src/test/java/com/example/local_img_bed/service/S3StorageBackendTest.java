@@ -0,0 +1,384 @@
+package com.example.local_img_bed.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * S3StorageBackend 对接进程内的简易 S3 服务 (路径形式访问，只实现用到的接口)
+ */
+class S3StorageBackendTest {
+    private static final String BUCKET = "images";
+    private static final int PART_SIZE = 1024;
+
+    @TempDir
+    Path rootPath;
+
+    private FakeS3 fakeS3;
+    private S3StorageBackend backend;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fakeS3 = new FakeS3();
+        backend = new S3StorageBackend();
+        ReflectionTestUtils.setField(backend, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(backend, "endpoint", "http://127.0.0.1:" + fakeS3.port());
+        ReflectionTestUtils.setField(backend, "region", "us-east-1");
+        ReflectionTestUtils.setField(backend, "bucket", BUCKET);
+        ReflectionTestUtils.setField(backend, "accessKey", "test");
+        ReflectionTestUtils.setField(backend, "secretKey", "test");
+        ReflectionTestUtils.setField(backend, "pathStyle", true);
+        ReflectionTestUtils.setField(backend, "partSize", (long) PART_SIZE);
+        ReflectionTestUtils.setField(backend, "transferThreads", 2);
+        ReflectionTestUtils.setField(backend, "cacheMaxSize", Long.MAX_VALUE);
+        backend.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        backend.shutdown();
+        fakeS3.stop();
+    }
+
+    @Test
+    void putSmallObjectAndStat() throws IOException {
+        byte[] data = randomBytes(100);
+        backend.put("original/a.jpg", staged(data));
+
+        assertThat(fakeS3.objects.get("original/a.jpg")).isEqualTo(data);
+        assertThat(fakeS3.initiated.get()).isZero();
+        StorageBackend.StorageObject object = backend.stat("original/a.jpg");
+        assertThat(object.size()).isEqualTo(100);
+        assertThat(backend.stat("original/missing.jpg")).isNull();
+    }
+
+    @Test
+    void putLargeObjectInParts() throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 3 + 17);
+        backend.put("original/b.jpg", staged(data));
+
+        assertThat(fakeS3.objects.get("original/b.jpg")).isEqualTo(data);
+        assertThat(fakeS3.initiated.get()).isEqualTo(1);
+        assertThat(fakeS3.completed.get()).isEqualTo(1);
+    }
+
+    @Test
+    void abortMultipartUploadWhenPartFails() throws IOException {
+        fakeS3.failPart = 2;
+        Path source = staged(randomBytes(PART_SIZE * 3));
+
+        assertThatThrownBy(() -> backend.put("original/c.jpg", source)).isInstanceOf(IOException.class);
+        assertThat(fakeS3.objects).doesNotContainKey("original/c.jpg");
+        assertThat(fakeS3.aborted.get()).isEqualTo(1);
+        assertThat(fakeS3.uploads).isEmpty();
+        assertThat(source).exists();
+    }
+
+    @Test
+    void rangedGet() throws IOException {
+        byte[] data = randomBytes(500);
+        fakeS3.objects.put("original/d.jpg", data);
+
+        try (InputStream in = backend.get("original/d.jpg", 100, 50)) {
+            assertThat(in.readAllBytes()).isEqualTo(java.util.Arrays.copyOfRange(data, 100, 150));
+        }
+        try (InputStream in = backend.get("original/d.jpg")) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+        assertThatThrownBy(() -> backend.get("original/missing.jpg")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void deleteRemovesObjectAndLocalCopy() throws IOException {
+        backend.put("original/e.jpg", staged(randomBytes(10)));
+        assertThat(rootPath.resolve("original/e.jpg")).exists();
+
+        backend.delete("original/e.jpg");
+        assertThat(fakeS3.objects).doesNotContainKey("original/e.jpg");
+        assertThat(rootPath.resolve("original/e.jpg")).doesNotExist();
+        // 不存在时忽略
+        backend.delete("original/e.jpg");
+    }
+
+    @Test
+    void listByPrefixSkipsHiddenObjects() throws IOException {
+        fakeS3.objects.put("original/2024/f.jpg", randomBytes(3));
+        fakeS3.objects.put("original/2024/.tmp-x", randomBytes(3));
+        fakeS3.objects.put("other/g.jpg", randomBytes(3));
+
+        List<String> keys = new ArrayList<>();
+        backend.list("original/", object -> keys.add(object.key()));
+        assertThat(keys).containsExactly("original/2024/f.jpg");
+    }
+
+    @Test
+    void localFileDownloadsInPartsAndEvictsLeastRecentlyUsed() throws IOException {
+        ReflectionTestUtils.setField(backend, "cacheMaxSize", (long) PART_SIZE * 5);
+        byte[] first = randomBytes(PART_SIZE * 2 + 1);
+        byte[] second = randomBytes(PART_SIZE * 2);
+        byte[] third = randomBytes(PART_SIZE * 2);
+        fakeS3.objects.put("original/1.jpg", first);
+        fakeS3.objects.put("original/2.jpg", second);
+        fakeS3.objects.put("original/3.jpg", third);
+
+        assertThat(Files.readAllBytes(backend.localFile("original/1.jpg"))).isEqualTo(first);
+        assertThat(fakeS3.rangedGets.get()).isEqualTo(3);
+        backend.localFile("original/2.jpg");
+        // 再次访问 1.jpg，淘汰时保留
+        backend.localFile("original/1.jpg");
+        backend.localFile("original/3.jpg");
+
+        assertThat(rootPath.resolve("original/1.jpg")).exists();
+        assertThat(rootPath.resolve("original/2.jpg")).doesNotExist();
+        assertThat(rootPath.resolve("original/3.jpg")).exists();
+        assertThatThrownBy(() -> backend.localFile("original/missing.jpg")).isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    void uploadedFileIsMovedIntoLocalCache() throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 2);
+        Path source = staged(data);
+        backend.put("original/h.jpg", source);
+
+        assertThat(source).doesNotExist();
+        int gets = fakeS3.rangedGets.get();
+        assertThat(Files.readAllBytes(backend.localFile("original/h.jpg"))).isEqualTo(data);
+        assertThat(fakeS3.rangedGets.get()).isEqualTo(gets);
+    }
+
+    private Path staged(byte[] data) throws IOException {
+        Path tmp = Files.createDirectories(rootPath.resolve("tmp")).resolve("upload-" + UUID.randomUUID() + ".part");
+        return Files.write(tmp, data);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 进程内的简易 S3 服务：PutObject、分片上传、GetObject (含 Range)、HeadObject、DeleteObject、ListObjectsV2
+     */
+    private static class FakeS3 {
+        private final HttpServer server;
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, TreeMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final AtomicInteger initiated = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger aborted = new AtomicInteger();
+        final AtomicInteger rangedGets = new AtomicInteger();
+        volatile int failPart = -1;
+
+        FakeS3() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", exchange -> {
+                try {
+                    handle(exchange);
+                } catch (Exception e) {
+                    respond(exchange, 500, error("InternalError"));
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String key = path.length() > BUCKET.length() + 2 ? path.substring(BUCKET.length() + 2) : "";
+            String method = exchange.getRequestMethod();
+
+            if ("GET".equals(method) && key.isEmpty() && "2".equals(query.get("list-type"))) {
+                list(exchange, query.getOrDefault("prefix", ""));
+            } else if ("POST".equals(method) && query.containsKey("uploads")) {
+                String uploadId = UUID.randomUUID().toString();
+                uploads.put(uploadId, new TreeMap<>());
+                initiated.incrementAndGet();
+                respond(exchange, 200, "<InitiateMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>" + key
+                        + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            } else if ("PUT".equals(method) && query.containsKey("uploadId")) {
+                int partNumber = Integer.parseInt(query.get("partNumber"));
+                byte[] body = body(exchange);
+                if (partNumber == failPart) {
+                    respond(exchange, 400, error("InvalidRequest"));
+                    return;
+                }
+                uploads.get(query.get("uploadId")).put(partNumber, body);
+                exchange.getResponseHeaders().set("ETag", "\"" + DigestUtils.md5Hex(body) + "\"");
+                respond(exchange, 200, "");
+            } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                body(exchange);
+                TreeMap<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (byte[] part : parts.values()) {
+                    out.write(part);
+                }
+                objects.put(key, out.toByteArray());
+                completed.incrementAndGet();
+                respond(exchange, 200, "<CompleteMultipartUploadResult><Bucket>" + BUCKET + "</Bucket><Key>" + key
+                        + "</Key><ETag>\"multipart-" + parts.size() + "\"</ETag></CompleteMultipartUploadResult>");
+            } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                uploads.remove(query.get("uploadId"));
+                aborted.incrementAndGet();
+                respond(exchange, 204, null);
+            } else if ("PUT".equals(method)) {
+                byte[] body = body(exchange);
+                objects.put(key, body);
+                exchange.getResponseHeaders().set("ETag", "\"" + DigestUtils.md5Hex(body) + "\"");
+                respond(exchange, 200, "");
+            } else if ("HEAD".equals(method)) {
+                byte[] data = objects.get(key);
+                if (data == null) {
+                    respond(exchange, 404, null);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+                exchange.getResponseHeaders().set("Last-Modified", "Mon, 01 Jan 2024 00:00:00 GMT");
+                exchange.getResponseHeaders().set("ETag", "\"" + DigestUtils.md5Hex(data) + "\"");
+                exchange.sendResponseHeaders(200, -1);
+            } else if ("GET".equals(method)) {
+                get(exchange, key);
+            } else if ("DELETE".equals(method)) {
+                objects.remove(key);
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 405, error("MethodNotAllowed"));
+            }
+        }
+
+        private void get(HttpExchange exchange, String key) throws IOException {
+            byte[] data = objects.get(key);
+            if (data == null) {
+                respond(exchange, 404, error("NoSuchKey"));
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            exchange.getResponseHeaders().set("Last-Modified", "Mon, 01 Jan 2024 00:00:00 GMT");
+            if (range == null) {
+                exchange.getResponseHeaders().set("ETag", "\"" + DigestUtils.md5Hex(data) + "\"");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+                return;
+            }
+            rangedGets.incrementAndGet();
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), data.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            exchange.getResponseBody().write(data, start, end - start + 1);
+        }
+
+        private void list(HttpExchange exchange, String prefix) throws IOException {
+            StringBuilder xml = new StringBuilder("<ListBucketResult><Name>" + BUCKET + "</Name><Prefix>" + prefix
+                    + "</Prefix><IsTruncated>false</IsTruncated>");
+            Set<String> keys = new java.util.TreeSet<>(objects.keySet());
+            for (String key : keys) {
+                if (key.startsWith(prefix)) {
+                    xml.append("<Contents><Key>").append(key).append("</Key><LastModified>2024-01-01T00:00:00.000Z</LastModified>")
+                            .append("<Size>").append(objects.get(key).length).append("</Size></Contents>");
+                }
+            }
+            respond(exchange, 200, xml.append("</ListBucketResult>").toString());
+        }
+
+        /**
+         * 读取请求体，签名的流式上传 (aws-chunked) 去掉分块头
+         */
+        private static byte[] body(HttpExchange exchange) throws IOException {
+            byte[] raw = exchange.getRequestBody().readAllBytes();
+            String sha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+            if (sha256 == null || !sha256.startsWith("STREAMING-")) {
+                return raw;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int position = 0;
+            while (position < raw.length) {
+                int lineEnd = indexOfCrlf(raw, position);
+                String header = new String(raw, position, lineEnd - position, StandardCharsets.US_ASCII);
+                int size = Integer.parseInt(header.split(";")[0], 16);
+                position = lineEnd + 2;
+                if (size == 0) {
+                    break;
+                }
+                out.write(raw, position, size);
+                position += size + 2;
+            }
+            return out.toByteArray();
+        }
+
+        private static int indexOfCrlf(byte[] data, int from) {
+            for (int i = from; i < data.length - 1; i++) {
+                if (data[i] == '\r' && data[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            return data.length;
+        }
+
+        private static Map<String, String> query(String rawQuery) {
+            Map<String, String> query = new HashMap<>();
+            if (rawQuery == null) {
+                return query;
+            }
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                query.put(eq < 0 ? pair : pair.substring(0, eq),
+                        eq < 0 ? "" : java.net.URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+            return query;
+        }
+
+        private static String error(String code) {
+            return "<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>";
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import com.example.local_img_bed.utils.PHashUtil;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 分段索引的查询结果与逐个比较汉明距离的结果一致
+ */
+class SimilarityIndexServiceTest {
+    private final Map<Long, Long> hashes = new LinkedHashMap<>();
+    private ImageMapper imageMapper;
+    private SimilarityIndexService index;
+
+    @BeforeEach
+    void setUp() {
+        // 围绕少量中心生成哈希，保证各个阈值下都有命中
+        Random random = new Random(7);
+        long[] centers = new long[20];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = random.nextLong() >>> 1;
+        }
+        for (long id = 1; id <= 3000; id++) {
+            long pHash = centers[random.nextInt(centers.length)];
+            int flips = random.nextInt(25);
+            for (int f = 0; f < flips; f++) {
+                pHash ^= 1L << random.nextInt(63);
+            }
+            hashes.put(id, pHash);
+        }
+
+        imageMapper = mock(ImageMapper.class);
+        doAnswer(invocation -> {
+            ResultHandler<Image> handler = invocation.getArgument(0);
+            DefaultResultContext<Image> context = new DefaultResultContext<>();
+            hashes.forEach((id, pHash) -> {
+                Image image = new Image();
+                image.setId(id);
+                image.setPHash(pHash);
+                context.nextResultObject(image);
+                handler.handleResult(context);
+            });
+            return null;
+        }).when(imageMapper).scanPHashes(any());
+        index = new SimilarityIndexService(imageMapper);
+    }
+
+    @Test
+    void queryMatchesBruteForce() {
+        index.build();
+        assertThat(index.size()).isEqualTo(hashes.size());
+
+        Random random = new Random(11);
+        List<Long> ids = new ArrayList<>(hashes.keySet());
+        // 0~23 走分段枚举，24 以上段半径超过 5，走全量扫描
+        for (int threshold : new int[]{0, 1, 3, 4, 7, 8, 10, 12, 15, 20, 24, 30}) {
+            for (int n = 0; n < 20; n++) {
+                long pHash = hashes.get(ids.get(random.nextInt(ids.size())));
+                assertThat(index.query(pHash, threshold, null))
+                        .as("threshold %d", threshold)
+                        .containsExactlyInAnyOrderElementsOf(bruteForce(pHash, threshold));
+            }
+        }
+    }
+
+    @Test
+    void queryBeforeBuildFallsBackToScan() {
+        long pHash = hashes.get(1L);
+        assertThat(index.query(pHash, 10, 1L))
+                .containsExactlyInAnyOrderElementsOf(bruteForce(pHash, 10).stream().filter(id -> id != 1L).toList());
+    }
+
+    @Test
+    void resultsAreSortedByDistanceAndExcludeTarget() {
+        index.build();
+        long pHash = hashes.get(1L);
+        List<Long> result = index.query(pHash, 20, 1L);
+
+        assertThat(result).doesNotContain(1L);
+        for (int i = 1; i < result.size(); i++) {
+            assertThat(PHashUtil.hammingDistance(pHash, hashes.get(result.get(i - 1))))
+                    .isLessThanOrEqualTo(PHashUtil.hammingDistance(pHash, hashes.get(result.get(i))));
+        }
+    }
+
+    @Test
+    void addAndRemoveKeepIndexConsistent() {
+        index.build();
+        long pHash = hashes.get(5L);
+        index.remove(5L);
+        hashes.remove(5L);
+        index.add(9001L, pHash ^ 0b101);
+        index.add(9001L, pHash ^ 0b101);
+        hashes.put(9001L, pHash ^ 0b101);
+
+        assertThat(index.size()).isEqualTo(hashes.size());
+        assertThat(index.query(pHash, 6, null)).containsExactlyInAnyOrderElementsOf(bruteForce(pHash, 6));
+
+        long[][] snapshot = index.snapshot();
+        assertThat(snapshot[0]).hasSize(hashes.size());
+        for (int i = 0; i < snapshot[0].length; i++) {
+            assertThat(hashes.get(snapshot[0][i])).isEqualTo(snapshot[1][i]);
+        }
+    }
+
+    @Test
+    void addReplacesPreviousHash() {
+        index.build();
+        long previous = hashes.get(7L);
+        long updated = ~previous >>> 1;
+        index.add(7L, updated);
+        hashes.put(7L, updated);
+
+        assertThat(index.size()).isEqualTo(hashes.size());
+        assertThat(index.query(previous, 0, null)).doesNotContain(7L);
+        assertThat(index.query(updated, 0, null)).contains(7L);
+
+        index.remove(7L);
+        hashes.remove(7L);
+        assertThat(index.query(updated, 30, null)).doesNotContain(7L);
+        assertThat(index.snapshot()[0]).hasSize(hashes.size()).doesNotContain(7L);
+    }
+
+    @Test
+    void neighboursEnumerateEveryValueWithinRadius() {
+        int value = 0b1010_0000_1111_0001;
+        for (int radius = 0; radius <= 3; radius++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int candidate = 0; candidate < SimilarityIndexService.BAND_BUCKETS; candidate++) {
+                if (Integer.bitCount(candidate ^ value) <= radius) {
+                    expected.add(candidate);
+                }
+            }
+            assertThat(SimilarityIndexService.neighbours(value, radius)).containsExactlyInAnyOrder(expected.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private List<Long> bruteForce(long pHash, int threshold) {
+        List<Long> result = new ArrayList<>();
+        hashes.forEach((id, other) -> {
+            if (PHashUtil.hammingDistance(pHash, other) <= threshold) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+}
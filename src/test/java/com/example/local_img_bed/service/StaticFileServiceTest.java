@@ -0,0 +1,193 @@
+package com.example.local_img_bed.service;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 条件请求和单区间 Range 的处理
+ */
+class StaticFileServiceTest {
+    private static final String ETAG = "\"abc\"";
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private StaticFileService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.write(directory.resolve("a.jpg"), CONTENT);
+        service = new StaticFileService(mock(StorageBackend.class), mock(StorageTierService.class), mock(ThumbnailVolumeService.class));
+    }
+
+    @Test
+    void servesWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = serve(request());
+
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENT);
+        assertThat(response.getContentType()).isEqualTo("image/jpeg");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.VARY)).isNull();
+    }
+
+    @Test
+    void servesRequestedRanges() throws IOException {
+        assertRange("bytes=2-5", 2, 5);
+        assertRange("bytes=7-", 7, 9);
+        assertRange("bytes=-3", 7, 9);
+        assertRange("bytes=-100", 0, 9);
+        assertRange("bytes=8-100", 8, 9);
+    }
+
+    @Test
+    void ignoresUnsupportedRanges() throws IOException {
+        for (String range : new String[]{"bytes=1-2,4-5", "items=1-2", "bytes=5-2", "bytes=a-b", "bytes=3"}) {
+            MockHttpServletRequest request = request();
+            request.addHeader(HttpHeaders.RANGE, range);
+            MockHttpServletResponse response = serve(request);
+
+            assertThat(response.getStatus()).as(range).isEqualTo(HttpServletResponse.SC_OK);
+            assertThat(response.getContentAsByteArray()).as(range).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() throws IOException {
+        for (String range : new String[]{"bytes=10-", "bytes=20-30", "bytes=-0"}) {
+            MockHttpServletRequest request = request();
+            request.addHeader(HttpHeaders.RANGE, range);
+            MockHttpServletResponse response = serve(request);
+
+            assertThat(response.getStatus()).as(range).isEqualTo(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+            assertThat(response.getContentAsByteArray()).isEmpty();
+        }
+    }
+
+    @Test
+    void ifRangeMismatchReturnsWholeFile() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"old\"");
+        MockHttpServletResponse response = serve(request);
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENT);
+
+        // 弱 ETag 不能用于 If-Range
+        request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "W/" + ETAG);
+        assertThat(serve(request).getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+
+        request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+        response = serve(request);
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    void ifNoneMatchReturnsNotModified() throws IOException {
+        for (String header : new String[]{ETAG, "W/" + ETAG, "\"x\", " + ETAG, "*"}) {
+            MockHttpServletRequest request = request();
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, header);
+            request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+            MockHttpServletResponse response = serve(request);
+
+            assertThat(response.getStatus()).as(header).isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+            assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+            assertThat(response.getContentAsByteArray()).isEmpty();
+        }
+
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"x\", \"y\"");
+        assertThat(serve(request).getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+    }
+
+    @Test
+    void headSendsLengthWithoutBody() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("HEAD", "/a.jpg");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void handsRangeToSendfileWhenSupported() throws IOException {
+        MockHttpServletRequest request = request();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(file.toAbsolutePath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(2L);
+        // 结束位置不包含
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(6L);
+    }
+
+    @Test
+    void missingFileLeavesResponseToCaller() throws IOException {
+        Files.delete(file);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(service.serve(request(), response, file, ETAG, CacheControl.noCache(), false)).isFalse();
+        assertThat(response.isCommitted()).isFalse();
+        assertThat(response.getStatus()).isEqualTo(HttpServletResponse.SC_OK);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void onlyPublicDirectoriesAreServed() {
+        assertThat(StaticFileService.isPublic("original/2024/a.jpg")).isTrue();
+        assertThat(StaticFileService.isPublic("thumbnails/a/b.webp")).isTrue();
+        assertThat(StaticFileService.isPublic("volumes/000001/0/10.webp")).isTrue();
+        assertThat(StaticFileService.isPublic("tmp/chunks/a.part")).isFalse();
+        assertThat(StaticFileService.isPublic("blobs/ab/abcd")).isFalse();
+        assertThat(StaticFileService.isPublic("cache/transform/1/320x_contain_q85.jpg")).isFalse();
+    }
+
+    private void assertRange(String range, int start, int end) throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, range);
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).as(range).isEqualTo(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).as(range).isEqualTo("bytes " + start + "-" + end + "/10");
+        assertThat(response.getContentLengthLong()).as(range).isEqualTo(end - start + 1);
+        assertThat(response.getContentAsByteArray()).as(range).isEqualTo(Arrays.copyOfRange(CONTENT, start, end + 1));
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request, response, file, ETAG, CacheControl.noCache(), false);
+        return response;
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/a.jpg");
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Image;
+import com.example.local_img_bed.mapper.ImageMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 原图在高速层和容量层之间迁移，任一时刻至少有一份可读
+ */
+class StorageTierServiceTest {
+    private static final String STORAGE_PATH = File.separator + "original" + File.separator + "1.jpg";
+    private static final byte[] CONTENT = {1, 2, 3};
+
+    @TempDir
+    Path hotRoot;
+
+    @TempDir
+    Path coldRoot;
+
+    private ImageMapper imageMapper;
+    private BlobStoreService blobStoreService;
+    private StorageTierService service;
+
+    @BeforeEach
+    void setUp() {
+        imageMapper = mock(ImageMapper.class);
+        blobStoreService = mock(BlobStoreService.class);
+        StorageBackend storageBackend = mock(StorageBackend.class);
+        when(storageBackend.isLocal()).thenReturn(true);
+        service = new StorageTierService(imageMapper, blobStoreService, storageBackend);
+        ReflectionTestUtils.setField(service, "rootPath", hotRoot.toString());
+        ReflectionTestUtils.setField(service, "coldRootPath", coldRoot.toString());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "demoteAfterDays", 30);
+        ReflectionTestUtils.setField(service, "promoteHits", 3);
+    }
+
+    @Test
+    void demotesIdleOriginals() throws IOException {
+        Path hot = write(hotRoot, Instant.now().minus(60, ChronoUnit.DAYS));
+        idle(image());
+        when(imageMapper.updateTier(1L, StorageTierService.TIER_HOT, StorageTierService.TIER_COLD)).thenReturn(1);
+
+        service.demoteIdle();
+
+        assertThat(hot).doesNotExist();
+        assertThat(coldRoot.resolve("original/1.jpg")).hasBinaryContent(CONTENT);
+    }
+
+    @Test
+    void keepsOriginalsRecentlyReadByNginx() throws IOException {
+        Path hot = write(hotRoot, Instant.now());
+        idle(image());
+
+        service.demoteIdle();
+
+        assertThat(hot).exists();
+        verify(imageMapper).updateLastAccessTimeById(eq(1L), any());
+        verify(imageMapper, never()).updateTier(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void keepsSourceWhenImageDeletedDuringMove() throws IOException {
+        Path hot = write(hotRoot, Instant.now().minus(60, ChronoUnit.DAYS));
+        idle(image());
+
+        service.demoteIdle();
+
+        assertThat(hot).exists();
+        assertThat(coldRoot.resolve("original/1.jpg")).doesNotExist();
+    }
+
+    @Test
+    void promotesFrequentlyReadColdOriginals() throws IOException {
+        Path cold = write(coldRoot, Instant.now());
+        when(imageMapper.selectInTierByStoragePaths(StorageTierService.TIER_COLD, List.of(STORAGE_PATH)))
+                .thenReturn(List.of(image()));
+        when(imageMapper.updateTier(1L, StorageTierService.TIER_COLD, StorageTierService.TIER_HOT)).thenReturn(1);
+        when(blobStoreService.isEnabled()).thenReturn(true);
+        // 批次列表写入后会被清空复用，调用时复制
+        List<String> written = new ArrayList<>();
+        doAnswer(invocation -> {
+            written.addAll(invocation.getArgument(0));
+            return written.size();
+        }).when(imageMapper).updateLastAccessTime(anyList(), any());
+
+        for (int i = 0; i < 3; i++) {
+            service.recordAccess("original/1.jpg");
+        }
+        service.recordAccess("thumbnails/1_small.jpg");
+        service.flushAccesses();
+
+        // 只统计原图的访问
+        assertThat(written).containsExactly(STORAGE_PATH);
+        assertThat(cold).doesNotExist();
+        assertThat(hotRoot.resolve("original/1.jpg")).hasBinaryContent(CONTENT);
+        // 迁回高速层后重新链接到内容文件
+        verify(blobStoreService).adopt(hotRoot.resolve("original/1.jpg"), "hash1");
+    }
+
+    @Test
+    void finishesMoveInterruptedAfterCopy() throws IOException {
+        write(coldRoot, Instant.now());
+        idle(image());
+        when(imageMapper.updateTier(1L, StorageTierService.TIER_HOT, StorageTierService.TIER_COLD)).thenReturn(1);
+
+        service.demoteIdle();
+
+        verify(imageMapper).updateTier(1L, StorageTierService.TIER_HOT, StorageTierService.TIER_COLD);
+    }
+
+    private void idle(Image image) {
+        when(imageMapper.selectIdleInTier(eq(StorageTierService.TIER_HOT), any(), eq(0L), anyInt()))
+                .thenReturn(List.of(image));
+    }
+
+    private static Path write(Path root, Instant accessed) throws IOException {
+        Path file = root.resolve("original/1.jpg");
+        Files.createDirectories(file.getParent());
+        Files.write(file, CONTENT);
+        Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(null, FileTime.from(accessed), null);
+        return file;
+    }
+
+    private static Image image() {
+        Image image = new Image();
+        image.setId(1L);
+        image.setStoragePath(STORAGE_PATH);
+        image.setHash("hash1");
+        return image;
+    }
+}
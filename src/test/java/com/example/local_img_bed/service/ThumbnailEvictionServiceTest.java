@@ -0,0 +1,99 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 配额只统计单独存放的略缩图，按最久未访问淘汰到低水位
+ */
+class ThumbnailEvictionServiceTest {
+    private static final String VOLUME_PREFIX = File.separator + "volumes" + File.separator;
+
+    @TempDir
+    Path rootPath;
+
+    private ThumbnailMapper thumbnailMapper;
+    private ThumbnailManifestService manifest;
+    private ThumbnailEvictionService service;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailMapper = mock(ThumbnailMapper.class);
+        manifest = mock(ThumbnailManifestService.class);
+        service = new ThumbnailEvictionService(thumbnailMapper, manifest);
+        ReflectionTestUtils.setField(service, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(service, "maxSize", 100L);
+        ReflectionTestUtils.setField(service, "lowWatermark", 0.5);
+    }
+
+    @Test
+    void evictsLeastRecentlyAccessedDownToLowWatermark() throws IOException {
+        Thumbnail first = thumbnail(1, 40L);
+        Thumbnail second = thumbnail(2, 40L);
+        Thumbnail third = thumbnail(3, 40L);
+        when(thumbnailMapper.sumFileSize(VOLUME_PREFIX)).thenReturn(120L);
+        when(thumbnailMapper.selectLeastRecentlyAccessed(eq(VOLUME_PREFIX), anyInt()))
+                .thenReturn(List.of(first, second, third));
+
+        service.evict();
+
+        verify(thumbnailMapper).deleteBatchIds(List.of(1L, 2L));
+        assertThat(rootPath.resolve("1_small.webp")).doesNotExist();
+        assertThat(rootPath.resolve("2_small.webp")).doesNotExist();
+        assertThat(rootPath.resolve("3_small.webp")).exists();
+        verify(manifest).removeThumbnail(1L, "small");
+        verify(manifest).removeThumbnail(2L, "small");
+        verify(manifest, never()).removeThumbnail(3L, "small");
+    }
+
+    @Test
+    void missingFileSizeFreesNothing() throws IOException {
+        when(thumbnailMapper.sumFileSize(VOLUME_PREFIX)).thenReturn(120L);
+        when(thumbnailMapper.selectLeastRecentlyAccessed(eq(VOLUME_PREFIX), anyInt()))
+                .thenReturn(List.of(thumbnail(1, null), thumbnail(2, 80L)))
+                .thenReturn(List.of());
+
+        service.evict();
+
+        verify(thumbnailMapper).deleteBatchIds(List.of(1L, 2L));
+    }
+
+    @Test
+    void withinQuotaDoesNothing() {
+        when(thumbnailMapper.sumFileSize(VOLUME_PREFIX)).thenReturn(100L);
+
+        service.evict();
+
+        verify(thumbnailMapper, never()).selectLeastRecentlyAccessed(eq(VOLUME_PREFIX), anyInt());
+    }
+
+    private Thumbnail thumbnail(long id, Long fileSize) throws IOException {
+        String name = id + "_small.webp";
+        Files.write(rootPath.resolve(name), new byte[1]);
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setId(id);
+        thumbnail.setOriginalId(id);
+        thumbnail.setType("small");
+        thumbnail.setStoragePath(File.separator + name);
+        thumbnail.setFileSize(fileSize);
+        return thumbnail;
+    }
+}
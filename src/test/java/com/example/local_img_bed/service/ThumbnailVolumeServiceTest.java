@@ -0,0 +1,247 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.entity.Thumbnail;
+import com.example.local_img_bed.mapper.ThumbnailMapper;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 打包卷的追加、读取、换段和压缩，略缩图表由内存中的记录模拟
+ */
+class ThumbnailVolumeServiceTest {
+    private static final int SEGMENT_SIZE = 100;
+
+    @TempDir
+    Path rootPath;
+
+    // 略缩图表: id -> 记录
+    private final Map<Long, Thumbnail> rows = new TreeMap<>();
+    private ThumbnailMapper thumbnailMapper;
+    private ThumbnailManifestService manifest;
+    private ThumbnailVolumeService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        thumbnailMapper = mock(ThumbnailMapper.class);
+        manifest = mock(ThumbnailManifestService.class);
+        doAnswer(invocation -> {
+            String prefix = unescape(invocation.getArgument(0));
+            ResultHandler<Thumbnail> handler = invocation.getArgument(1);
+            DefaultResultContext<Thumbnail> context = new DefaultResultContext<>();
+            rows.values().stream().filter(row -> row.getStoragePath().startsWith(prefix)).forEach(row -> {
+                context.nextResultObject(row);
+                handler.handleResult(context);
+            });
+            return null;
+        }).when(thumbnailMapper).scanByStoragePathPrefix(anyString(), any());
+        when(thumbnailMapper.selectByStoragePathPrefix(anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            String prefix = unescape(invocation.getArgument(0));
+            long afterId = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            return rows.values().stream()
+                    .filter(row -> row.getStoragePath().startsWith(prefix) && row.getId() > afterId)
+                    .limit(limit)
+                    .map(ThumbnailVolumeServiceTest::copy)
+                    .toList();
+        });
+        when(thumbnailMapper.updateStoragePathIfUnchanged(anyLong(), anyString(), anyString())).thenAnswer(invocation -> {
+            Thumbnail row = rows.get(invocation.<Long>getArgument(0));
+            if (row == null || !row.getStoragePath().equals(invocation.getArgument(1))) {
+                return 0;
+            }
+            row.setStoragePath(invocation.getArgument(2));
+            return 1;
+        });
+
+        service = newService();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.shutdown();
+    }
+
+    @Test
+    void appendedThumbnailsReadBack() throws IOException {
+        byte[] first = randomBytes(10, 1);
+        byte[] second = randomBytes(20, 2);
+        String firstPath = service.append(first, "webp");
+        assertThat(read(firstPath)).isEqualTo(first);
+
+        // 当前段增长后重新映射
+        String secondPath = service.append(second, "jpg");
+        assertThat(ThumbnailManifestService.toStaticPath(firstPath)).isEqualTo("volumes/000001/0/10.webp");
+        assertThat(ThumbnailManifestService.toStaticPath(secondPath)).isEqualTo("volumes/000001/10/20.jpg");
+        assertThat(read(secondPath)).isEqualTo(second);
+        assertThat(read(firstPath)).isEqualTo(first);
+    }
+
+    @Test
+    void invalidPathsReadAsNull() throws IOException {
+        service.append(randomBytes(10, 1), "webp");
+
+        assertThat(service.read("volumes/000001/0")).isNull();
+        assertThat(service.read("volumes/x/0/10.webp")).isNull();
+        assertThat(service.read("thumbnails/a/b.webp")).isNull();
+        // 超出段长度或段不存在
+        assertThat(service.read("volumes/000001/5/10.webp")).isNull();
+        assertThat(service.read("volumes/000009/0/10.webp")).isNull();
+    }
+
+    @Test
+    void rollsOverToNextSegmentAndResumesAfterRestart() throws IOException {
+        service.append(randomBytes(60, 1), "webp");
+        String second = service.append(randomBytes(60, 2), "webp");
+        assertThat(ThumbnailManifestService.toStaticPath(second)).isEqualTo("volumes/000002/0/60.webp");
+
+        service.shutdown();
+        service = newService();
+        byte[] third = randomBytes(30, 3);
+        String thirdPath = service.append(third, "webp");
+        assertThat(ThumbnailManifestService.toStaticPath(thirdPath)).isEqualTo("volumes/000002/60/30.webp");
+        assertThat(read(thirdPath)).isEqualTo(third);
+    }
+
+    @Test
+    void compactRelocatesSparseSegmentsAndRemovesEmptyOnes() throws IOException {
+        byte[][] data = {randomBytes(30, 1), randomBytes(30, 2), randomBytes(30, 3)};
+        for (int i = 0; i < data.length; i++) {
+            insert(i + 1, service.append(data[i], "webp"));
+        }
+        // 换到第 2 段，第 1 段不再追加
+        byte[] active = randomBytes(30, 4);
+        insert(4, service.append(active, "webp"));
+        String oldPath = rows.get(2L).getStoragePath();
+        rows.remove(1L);
+        rows.remove(3L);
+
+        service.compact();
+
+        String newPath = rows.get(2L).getStoragePath();
+        assertThat(ThumbnailManifestService.toStaticPath(newPath)).isEqualTo("volumes/000002/30/30.webp");
+        assertThat(read(newPath)).isEqualTo(data[1]);
+        verify(manifest).putThumbnail(eq(2L), eq("small"), eq(newPath));
+        // 复制走的段在下一轮才删除，已拿到旧地址的客户端仍可访问
+        assertThat(read(oldPath)).isEqualTo(data[1]);
+        assertThat(rootPath.resolve("volumes/000001.seg")).exists();
+
+        service.compact();
+
+        assertThat(rootPath.resolve("volumes/000001.seg")).doesNotExist();
+        assertThat(read(oldPath)).isNull();
+        assertThat(read(newPath)).isEqualTo(data[1]);
+        assertThat(read(rows.get(4L).getStoragePath())).isEqualTo(active);
+    }
+
+    @Test
+    void compactDoesNotOverwriteRowsChangedWhileCopying() throws IOException {
+        for (int i = 1; i <= 3; i++) {
+            insert(i, service.append(randomBytes(30, i), "webp"));
+        }
+        insert(4, service.append(randomBytes(30, 4), "webp"));
+        rows.remove(1L);
+        rows.remove(3L);
+        // 查询出待迁移的记录后，略缩图被重新生成到其他位置
+        when(thumbnailMapper.selectByStoragePathPrefix(anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long afterId = invocation.getArgument(1);
+            if (afterId > 0) {
+                return List.of();
+            }
+            Thumbnail selected = copy(rows.get(2L));
+            rows.get(2L).setStoragePath("/thumbnails/ab/cd/2_small.webp");
+            return List.of(selected);
+        });
+
+        service.compact();
+
+        assertThat(rows.get(2L).getStoragePath()).isEqualTo("/thumbnails/ab/cd/2_small.webp");
+        verify(manifest, never()).putThumbnail(anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    void compactKeepsDenseSegments() throws IOException {
+        insert(1, service.append(randomBytes(60, 1), "webp"));
+        insert(2, service.append(randomBytes(60, 2), "webp"));
+        String path = rows.get(1L).getStoragePath();
+
+        service.compact();
+
+        assertThat(rows.get(1L).getStoragePath()).isEqualTo(path);
+        assertThat(rootPath.resolve("volumes/000001.seg")).exists();
+    }
+
+    private ThumbnailVolumeService newService() throws IOException {
+        ThumbnailVolumeService volumeService = new ThumbnailVolumeService(thumbnailMapper, manifest);
+        ReflectionTestUtils.setField(volumeService, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(volumeService, "enabled", true);
+        ReflectionTestUtils.setField(volumeService, "sizes", Set.of("small"));
+        ReflectionTestUtils.setField(volumeService, "segmentSize", (long) SEGMENT_SIZE);
+        ReflectionTestUtils.setField(volumeService, "compactThreshold", 0.5);
+        volumeService.init();
+        return volumeService;
+    }
+
+    private static Thumbnail copy(Thumbnail row) {
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setId(row.getId());
+        thumbnail.setOriginalId(row.getOriginalId());
+        thumbnail.setType(row.getType());
+        thumbnail.setStoragePath(row.getStoragePath());
+        return thumbnail;
+    }
+
+    private void insert(long id, String storagePath) {
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setId(id);
+        thumbnail.setOriginalId(id);
+        thumbnail.setType("small");
+        thumbnail.setStoragePath(storagePath);
+        rows.put(id, thumbnail);
+    }
+
+    private byte[] read(String storagePath) throws IOException {
+        ByteBuffer buffer = service.read(ThumbnailManifestService.toStaticPath(storagePath));
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String unescape(String likePrefix) {
+        return likePrefix.replace("\\\\", "\\");
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
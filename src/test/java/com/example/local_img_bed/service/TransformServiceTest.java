@@ -0,0 +1,144 @@
+package com.example.local_img_bed.service;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 参数归一化到档位后的缓存路径、生成结果尺寸，以及请求签名
+ */
+class TransformServiceTest {
+    private static final String ORIGINAL = "original/a.png";
+
+    @TempDir
+    Path rootPath;
+
+    private StorageBackend storageBackend;
+    private TransformService service;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path original = Files.createDirectories(rootPath.resolve("original")).resolve("a.png");
+        ImageIO.write(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), "png", original.toFile());
+
+        ThumbnailManifestService manifest = mock(ThumbnailManifestService.class);
+        when(manifest.loadStoragePath(1L)).thenReturn(ORIGINAL);
+        storageBackend = mock(StorageBackend.class);
+        when(storageBackend.localFile(ORIGINAL)).thenReturn(original);
+
+        service = new TransformService(manifest, storageBackend);
+        ReflectionTestUtils.setField(service, "rootPath", rootPath.toString());
+        ReflectionTestUtils.setField(service, "sizeBuckets", new int[]{1024, 64, 320, 640});
+        ReflectionTestUtils.setField(service, "cacheMaxSize", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(service, "secret", "");
+        service.init();
+    }
+
+    @Test
+    void normalisesSizeAndQualityToBuckets() throws IOException {
+        // 向上取档位
+        assertThat(service.transform(1L, 300, null, "contain", 77, null)).isEqualTo("cache/transform/1/320x_contain_q85.png");
+        assertThat(service.transform(1L, 301, null, "contain", 80, null)).isEqualTo("cache/transform/1/320x_contain_q85.png");
+        // 命中档位本身
+        assertThat(service.transform(1L, 640, null, "contain", 70, null)).isEqualTo("cache/transform/1/640x_contain_q70.png");
+        // 超过最大档位取最大档位，质量同理
+        assertThat(service.transform(1L, null, 5000, "contain", 100, null)).isEqualTo(ORIGINAL);
+        assertThat(service.transform(1L, 1, null, "contain", 1, null)).isEqualTo("cache/transform/1/64x_contain_q50.png");
+        assertThat(service.transform(1L, 64, null, "contain", null, "jpeg")).isEqualTo("cache/transform/1/64x_contain_q85.jpg");
+    }
+
+    @Test
+    void singleSideIgnoresCover() throws IOException {
+        assertThat(service.transform(1L, null, 300, "cover", null, null)).isEqualTo("cache/transform/1/x320_contain_q85.png");
+    }
+
+    @Test
+    void rendersRequestedGeometry() throws IOException {
+        assertThat(size(service.transform(1L, 320, 320, "cover", null, null))).containsExactly(320, 320);
+        assertThat(size(service.transform(1L, 320, 320, "contain", null, null))).containsExactly(320, 213);
+        assertThat(size(service.transform(1L, null, 64, "contain", null, null))).containsExactly(96, 64);
+        // 不放大：原图已在范围内时直接返回原图，裁剪时按原图尺寸缩小裁剪框
+        assertThat(service.transform(1L, null, 1024, "contain", null, null)).isEqualTo(ORIGINAL);
+        assertThat(size(service.transform(1L, 1024, 1024, "contain", null, null))).containsExactly(1024, 683);
+        assertThat(size(service.transform(1L, 1024, 1024, "cover", null, null))).containsExactly(800, 800);
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThatThrownBy(() -> service.transform(1L, null, null, "contain", null, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.transform(1L, 0, null, "contain", null, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.transform(1L, 10, null, "fill", null, null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void signsRawParameters() throws Exception {
+        assertThat(service.sign(1L, 300, null, "contain", 80)).isNull();
+        assertThat(service.verify(1L, 300, null, "contain", 80, null)).isTrue();
+
+        ReflectionTestUtils.setField(service, "secret", "s3cret");
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec("s3cret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String expected = HexFormat.of().formatHex(mac.doFinal("1/300//contain/80".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(service.sign(1L, 300, null, "contain", 80)).isEqualTo(expected);
+        assertThat(service.verify(1L, 300, null, "contain", 80, expected)).isTrue();
+        // 签名针对原始参数，归一化到同一档位的其他参数不能复用
+        assertThat(service.verify(1L, 301, null, "contain", 80, expected)).isFalse();
+        assertThat(service.verify(2L, 300, null, "contain", 80, expected)).isFalse();
+        assertThat(service.verify(1L, 300, null, "contain", 80, null)).isFalse();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAndReconcilesUntrackedFiles() throws IOException {
+        String first = service.transform(1L, 64, null, "contain", null, null);
+        String second = service.transform(1L, 320, null, "contain", null, null);
+        long firstSize = Files.size(rootPath.resolve(first));
+        long secondSize = Files.size(rootPath.resolve(second));
+        // 其他节点写入的文件
+        Path foreign = Files.createDirectories(rootPath.resolve("cache/transform/2")).resolve("64x_contain_q85.png");
+        Files.write(foreign, new byte[10]);
+
+        ReflectionTestUtils.setField(service, "cacheMaxSize", firstSize + secondSize);
+        service.reconcile();
+
+        assertThat(foreign).doesNotExist();
+        assertThat(rootPath.resolve(first)).exists();
+        assertThat(rootPath.resolve(second)).exists();
+
+        // 再访问 first 后，新生成的文件挤出最久未访问的 second
+        service.transform(1L, 64, null, "contain", null, null);
+        ReflectionTestUtils.setField(service, "cacheMaxSize", firstSize + secondSize + 1);
+        String third = service.transform(1L, null, 64, "contain", null, null);
+        assertThat(rootPath.resolve(second)).doesNotExist();
+        assertThat(rootPath.resolve(first)).exists();
+        assertThat(rootPath.resolve(third)).exists();
+    }
+
+    private int[] size(String key) throws IOException {
+        BufferedImage image = ImageIO.read(rootPath.resolve(key).toFile());
+        return new int[]{image.getWidth(), image.getHeight()};
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.local_img_bed.service;
+
+import com.example.local_img_bed.mapper.ImageMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 回收站只在清理时段内按批彻底删除过期图片
+ */
+class TrashServiceTest {
+    private ImageMapper imageMapper;
+    private ImageService imageService;
+    private TrashService service;
+
+    @BeforeEach
+    void setUp() {
+        imageMapper = mock(ImageMapper.class);
+        imageService = mock(ImageService.class);
+        service = new TrashService(imageMapper, imageService);
+        ReflectionTestUtils.setField(service, "retentionDays", 30);
+        ReflectionTestUtils.setField(service, "batchSize", 200);
+    }
+
+    @Test
+    void purgesExpiredBatchInsideWindow() {
+        // 开始等于结束表示全天
+        window(3, 3);
+        when(imageMapper.selectTrashedBefore(any(), eq(200))).thenReturn(List.of(1L, 2L));
+
+        service.sweep();
+
+        LocalDateTime expected = LocalDateTime.now().minusDays(30);
+        verify(imageMapper).selectTrashedBefore(argThat(before ->
+                !before.isBefore(expected.minusMinutes(1)) && !before.isAfter(expected)), eq(200));
+        verify(imageService).purgeImages(List.of(1L, 2L));
+    }
+
+    @Test
+    void skipsOutsideWindow() {
+        int hour = LocalTime.now().getHour();
+        window((hour + 1) % 24, (hour + 2) % 24);
+
+        service.sweep();
+
+        verify(imageMapper, never()).selectTrashedBefore(any(), anyInt());
+    }
+
+    @Test
+    void windowMayWrapAroundMidnight() {
+        int hour = LocalTime.now().getHour();
+        // [hour, hour - 1) 跨越零点，覆盖当前小时
+        window(hour, (hour + 23) % 24);
+        when(imageMapper.selectTrashedBefore(any(), anyInt())).thenReturn(List.of());
+
+        service.sweep();
+
+        verify(imageMapper).selectTrashedBefore(any(), anyInt());
+        verify(imageService, never()).purgeImages(anyList());
+    }
+
+    private void window(int start, int end) {
+        ReflectionTestUtils.setField(service, "sweepStartHour", start);
+        ReflectionTestUtils.setField(service, "sweepEndHour", end);
+    }
+}
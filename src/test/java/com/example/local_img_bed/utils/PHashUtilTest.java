@@ -0,0 +1,136 @@
+package com.example.local_img_bed.utils;
+
+import nu.pattern.OpenCV;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * pHash 位序：63 位按 DCT 系数行优先从高位写入，与 V2 迁移 CONV(p_hash, 2, 10) 转换旧字符串的结果一致
+ */
+class PHashUtilTest {
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void loadOpenCV() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    void firstCoefficientIsMostSignificantBit() {
+        double[][] coefficients = new double[8][8];
+        coefficients[0][1] = 100;
+        assertThat(PHashUtil.packBits(coefficients)).isEqualTo(1L << 62);
+
+        coefficients = new double[8][8];
+        coefficients[7][7] = 100;
+        assertThat(PHashUtil.packBits(coefficients)).isEqualTo(1L);
+    }
+
+    @Test
+    void dcComponentIsIgnored() {
+        double[][] coefficients = randomCoefficients(new Random(1));
+        long expected = PHashUtil.packBits(coefficients);
+        coefficients[0][0] = 1e9;
+        assertThat(PHashUtil.packBits(coefficients)).isEqualTo(expected);
+    }
+
+    @Test
+    void matchesMigratedBitString() {
+        Random random = new Random(42);
+        for (int n = 0; n < 1000; n++) {
+            double[][] coefficients = randomCoefficients(random);
+            long pHash = PHashUtil.packBits(coefficients);
+
+            assertThat(pHash).isNotNegative();
+            assertThat(pHash).isEqualTo(Long.parseLong(legacyBitString(coefficients), 2));
+        }
+    }
+
+    @Test
+    void remainingBitsFillLow62Bits() {
+        double[][] coefficients = new double[8][8];
+        for (double[] row : coefficients) {
+            Arrays.fill(row, 1);
+        }
+        coefficients[0][1] = 0;
+        // 只有 (0,1) 低于均值
+        assertThat(PHashUtil.packBits(coefficients)).isEqualTo((1L << 62) - 1);
+    }
+
+    @Test
+    void sameImageHashesIdentically() throws IOException {
+        Path image = gradient("a.png", 0);
+        long pHash = PHashUtil.calculatePHash(image);
+
+        assertThat(pHash).isNotNegative();
+        assertThat(PHashUtil.calculatePHash(image)).isEqualTo(pHash);
+        // 亮度整体偏移不改变系数与均值的大小关系
+        assertThat(PHashUtil.hammingDistance(pHash, PHashUtil.calculatePHash(gradient("b.png", 20)))).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void hammingDistanceCountsDifferingBits() {
+        assertThat(PHashUtil.hammingDistance(0L, 0L)).isZero();
+        assertThat(PHashUtil.hammingDistance(0b1011L, 0b0001L)).isEqualTo(2);
+        assertThat(PHashUtil.hammingDistance(0L, (1L << 63) - 1)).isEqualTo(63);
+    }
+
+    /**
+     * 迁移前的实现：按同样顺序拼接 '1' / '0'
+     */
+    private static String legacyBitString(double[][] coefficients) {
+        double total = 0;
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                total += coefficients[i][j];
+            }
+        }
+        total -= coefficients[0][0];
+        double avg = total / 63;
+        StringBuilder hash = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                if (i == 0 && j == 0) {
+                    continue;
+                }
+                hash.append(coefficients[i][j] > avg ? "1" : "0");
+            }
+        }
+        return hash.toString();
+    }
+
+    private static double[][] randomCoefficients(Random random) {
+        double[][] coefficients = new double[8][8];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                coefficients[i][j] = random.nextGaussian() * 100;
+            }
+        }
+        return coefficients;
+    }
+
+    private Path gradient(String name, int offset) throws IOException {
+        BufferedImage image = new BufferedImage(256, 192, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int v = Math.min(255, (x * 3 + y * 5) % 200 + offset);
+                image.setRGB(x, y, (v << 16) | (v << 8) | v);
+            }
+        }
+        Path file = directory.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}